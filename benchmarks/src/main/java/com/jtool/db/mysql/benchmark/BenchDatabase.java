@@ -0,0 +1,74 @@
+package com.jtool.db.mysql.benchmark;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 压测用的H2内存数据库（MySQL模式）和dao，每次调用start都是一个新的库
+ */
+final class BenchDatabase {
+
+	static final int ROWS = 10000;
+
+	private static final AtomicInteger DATABASE_COUNT = new AtomicInteger();
+
+	private final AnnotationConfigApplicationContext context;
+	private final JdbcTemplate jdbcTemplate;
+	private final BenchUserDAO benchUserDAO;
+	private final SingleConnectionDataSource dataSource;
+
+	private BenchDatabase(AnnotationConfigApplicationContext context, JdbcTemplate jdbcTemplate, SingleConnectionDataSource dataSource) {
+		this.context = context;
+		this.jdbcTemplate = jdbcTemplate;
+		this.dataSource = dataSource;
+		this.benchUserDAO = context.getBean(BenchUserDAO.class);
+	}
+
+	static BenchDatabase start() {
+		//压测是单线程的，复用一个连接，避免每次调用都建立新连接
+		SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+				"jdbc:h2:mem:bench" + DATABASE_COUNT.incrementAndGet() + ";MODE=MySQL;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1", "sa", "", true);
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE `bench_users` (`id` int(11) NOT NULL AUTO_INCREMENT,`name` varchar(45) NOT NULL,`age` int(11) NOT NULL,`birthday` datetime DEFAULT NULL,`height` double DEFAULT NULL,PRIMARY KEY (`id`))");
+		jdbcTemplate.execute("CREATE INDEX `idx_age` ON `bench_users` (`age`)");
+
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.getBeanFactory().registerSingleton("dataSource", dataSource);
+		context.register(BenchUserDAO.class);
+		context.refresh();
+		return new BenchDatabase(context, jdbcTemplate, dataSource);
+	}
+
+	BenchDatabase fill() {
+		List<BenchUser> users = new ArrayList<>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			users.add(newUser(i));
+		}
+		benchUserDAO.addAll(users);
+		return this;
+	}
+
+	static BenchUser newUser(int i) {
+		return new BenchUser().setName("user" + i).setAge(i % 100).setBirthday(new Date(i * 1000L)).setHeight(1.5 + i % 50 / 100.0);
+	}
+
+	BenchUserDAO dao() {
+		return benchUserDAO;
+	}
+
+	JdbcTemplate jdbcTemplate() {
+		return jdbcTemplate;
+	}
+
+	void stop() {
+		jdbcTemplate.execute("SHUTDOWN");
+		context.close();
+		dataSource.destroy();
+	}
+}
@@ -0,0 +1,56 @@
+package com.jtool.db.mysql.benchmark;
+
+import java.util.Date;
+
+public class BenchUser {
+	private Long id;
+	private String name;
+	private Integer age;
+	private Date birthday;
+	private Double height;
+
+	public Long getId() {
+		return id;
+	}
+
+	public BenchUser setId(Long id) {
+		this.id = id;
+		return this;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BenchUser setName(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public Integer getAge() {
+		return age;
+	}
+
+	public BenchUser setAge(Integer age) {
+		this.age = age;
+		return this;
+	}
+
+	public Date getBirthday() {
+		return birthday;
+	}
+
+	public BenchUser setBirthday(Date birthday) {
+		this.birthday = birthday;
+		return this;
+	}
+
+	public Double getHeight() {
+		return height;
+	}
+
+	public BenchUser setHeight(Double height) {
+		this.height = height;
+		return this;
+	}
+}
@@ -0,0 +1,15 @@
+package com.jtool.db.mysql.benchmark;
+
+import com.jtool.db.mysql.annotation.DataSource;
+import com.jtool.db.mysql.annotation.Table;
+import com.jtool.db.mysql.dao.AbstractDAO;
+import org.springframework.jdbc.core.RowMapper;
+
+@Table(tableName = "bench_users", primaryKeyName = "id")
+@DataSource("dataSource")
+public class BenchUserDAO extends AbstractDAO<BenchUser> {
+
+	RowMapper<BenchUser> rowMapper() {
+		return makeRowMapperInstance();
+	}
+}
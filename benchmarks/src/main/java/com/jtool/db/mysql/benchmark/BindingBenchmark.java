@@ -0,0 +1,63 @@
+package com.jtool.db.mysql.benchmark;
+
+import com.jtool.db.mysql.dao.BenchmarkHooks;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * add()绑定一个对象的参数的开销，绑定到同一个PreparedStatement但是不执行：
+ * 以前按属性名建BeanPropertySqlParameterSource再由StatementCreatorUtils判断类型，现在用PojoWriter预先选好的setXxx
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BindingBenchmark {
+
+	private static final String[] COLUMNS = {"name", "age", "birthday", "height"};
+
+	private BenchDatabase database;
+	private Connection connection;
+	private PreparedStatement ps;
+	private BenchmarkHooks.Binder<BenchUser> pojoWriter;
+	private BenchUser user;
+
+	@Setup
+	public void setup() throws SQLException, ReflectiveOperationException {
+		database = BenchDatabase.start();
+		connection = database.jdbcTemplate().getDataSource().getConnection();
+		ps = connection.prepareStatement("insert into bench_users (" + String.join(", ", COLUMNS) + ") values (?, ?, ?, ?)");
+		pojoWriter = BenchmarkHooks.pojoWriter(BenchUser.class, "id", COLUMNS);
+		user = BenchDatabase.newUser(42);
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		ps.close();
+		connection.close();
+		database.stop();
+	}
+
+	@Benchmark
+	public void beanPropertySqlParameterSource() throws SQLException {
+		SqlParameterSource sps = new BeanPropertySqlParameterSource(user);
+		for (int i = 0; i < COLUMNS.length; i++) {
+			StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, sps.getValue(COLUMNS[i]));
+		}
+	}
+
+	@Benchmark
+	public void pojoWriter() throws SQLException {
+		pojoWriter.bind(ps, user);
+	}
+}
@@ -0,0 +1,78 @@
+package com.jtool.db.mysql.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过dao访问H2内存数据库的完整调用，包含拼SQL、JDBC、映射对象和写入
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+
+	private BenchDatabase database;
+	private BenchUserDAO dao;
+	private int insertCount;
+
+	@Setup
+	public void setup() {
+		database = BenchDatabase.start().fill();
+		dao = database.dao();
+	}
+
+	@TearDown
+	public void tearDown() {
+		database.stop();
+	}
+
+	//写入的数据每轮清掉，不让表一直变大
+	@TearDown(Level.Iteration)
+	public void cleanInserted() {
+		database.jdbcTemplate().update("delete from bench_users where id > ?", BenchDatabase.ROWS);
+	}
+
+	@Benchmark
+	public Optional<BenchUser> selectByPrimaryKey() {
+		return dao.selectByPrimaryKeyOpt(ThreadLocalRandom.current().nextInt(1, BenchDatabase.ROWS + 1));
+	}
+
+	@Benchmark
+	public Map<Integer, BenchUser> selectByPrimaryKeys() {
+		int id = ThreadLocalRandom.current().nextInt(1, BenchDatabase.ROWS - 10);
+		return dao.selectByPrimaryKeys(Arrays.asList(id, id + 1, id + 2, id + 3, id + 4, id + 5, id + 6, id + 7, id + 8, id + 9));
+	}
+
+	@Benchmark
+	public List<BenchUser> selectWhereLimit() {
+		return dao.select().where("age = ?", ThreadLocalRandom.current().nextInt(100)).limit(0, 50).execAsList();
+	}
+
+	@Benchmark
+	public int count() {
+		return dao.select().where("age > ?", 50).count();
+	}
+
+	@Benchmark
+	public long add() {
+		return dao.addAndReturnPrimaryKey(BenchDatabase.newUser(insertCount++));
+	}
+
+	@Benchmark
+	public int addAll100() {
+		BenchUser[] users = new BenchUser[100];
+		for (int i = 0; i < users.length; i++) {
+			users[i] = BenchDatabase.newUser(insertCount++);
+		}
+		return dao.addAll(Arrays.asList(users));
+	}
+}
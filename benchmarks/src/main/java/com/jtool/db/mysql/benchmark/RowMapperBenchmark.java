@@ -0,0 +1,59 @@
+package com.jtool.db.mysql.benchmark;
+
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * makeRowMapperInstance映射内存里面的结果集，不包含数据库和驱动的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowMapperBenchmark {
+
+	@Param({"1", "100", "1000"})
+	private int rows;
+
+	private BenchDatabase database;
+	private SimpleResultSet resultSet;
+
+	@Setup
+	public void setup() {
+		database = BenchDatabase.start();
+		resultSet = new SimpleResultSet();
+		resultSet.setAutoClose(false);
+		resultSet.addColumn("id", Types.INTEGER, 11, 0);
+		resultSet.addColumn("name", Types.VARCHAR, 45, 0);
+		resultSet.addColumn("age", Types.INTEGER, 11, 0);
+		resultSet.addColumn("birthday", Types.TIMESTAMP, 0, 0);
+		resultSet.addColumn("height", Types.DOUBLE, 0, 0);
+		for (int i = 0; i < rows; i++) {
+			resultSet.addRow(i, "user" + i, i % 100, i % 2 == 0 ? new Timestamp(i * 1000L) : null, 1.5 + i % 50 / 100.0);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		database.stop();
+	}
+
+	@Benchmark
+	public void mapRows(Blackhole blackhole) throws SQLException {
+		resultSet.beforeFirst();
+		RowMapper<BenchUser> rowMapper = database.dao().rowMapper();
+		int rowNum = 0;
+		while (resultSet.next()) {
+			blackhole.consume(rowMapper.mapRow(resultSet, rowNum++));
+		}
+	}
+}
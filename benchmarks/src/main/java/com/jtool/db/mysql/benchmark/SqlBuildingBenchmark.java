@@ -0,0 +1,44 @@
+package com.jtool.db.mysql.benchmark;
+
+import com.jtool.db.mysql.dao.BenchmarkHooks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * execAsList这类方法每次调用时拼SQL的开销：建好Select再拼一条SQL，不执行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlBuildingBenchmark {
+
+	private BenchDatabase database;
+
+	@Setup
+	public void setup() {
+		database = BenchDatabase.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		database.stop();
+	}
+
+	@Benchmark
+	public String selectAll() {
+		return BenchmarkHooks.sql(database.dao().select());
+	}
+
+	@Benchmark
+	public String whereOrderByLimit() {
+		return BenchmarkHooks.sql(database.dao().select()
+				.where("age > ? and name != ?", 18, "nobody")
+				.orderByDesc("age")
+				.orderByAsc("id")
+				.limit(20, 10));
+	}
+}
@@ -0,0 +1,35 @@
+package com.jtool.db.mysql.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压测用：和dao放在同一个包里面，把包内可见的SQL拼接和参数绑定暴露给com.jtool.db.mysql.benchmark，只在benchmarks工程里面
+ */
+public final class BenchmarkHooks {
+
+	@FunctionalInterface
+	public interface Binder<T> {
+		void bind(PreparedStatement ps, T object) throws SQLException;
+	}
+
+	private BenchmarkHooks() {
+	}
+
+	//execAsList这类方法每次调用时拼SQL的开销
+	public static String sql(Select<?> select) {
+		return select.sql();
+	}
+
+	//和dao初始化时一样生成PojoWriter，返回add()绑定参数用的方法
+	public static <T> Binder<T> pojoWriter(Class<T> pojoClass, String primaryKeyName, String... columns) throws ReflectiveOperationException {
+		Map<String, PojoProperty> properties = new LinkedHashMap<>();
+		for (String column : columns) {
+			properties.put(column, PojoProperty.reflect(pojoClass, column));
+		}
+		PojoWriter<T> pojoWriter = new PojoWriter<>(pojoClass, properties, primaryKeyName, false, null);
+		return pojoWriter::bind;
+	}
+}
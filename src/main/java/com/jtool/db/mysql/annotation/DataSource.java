@@ -7,4 +7,9 @@ import java.lang.annotation.*;
 @Inherited
 public @interface DataSource {
 	String value() default "";
+	String[] replicas() default {};
+	LoadBalance loadBalance() default LoadBalance.ROUND_ROBIN;
+	long readYourWritesMillis() default 0;
+	String[] shards() default {};
+	int asyncThreads() default 8;
 }
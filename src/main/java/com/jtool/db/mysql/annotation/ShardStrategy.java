@@ -0,0 +1,6 @@
+package com.jtool.db.mysql.annotation;
+
+public enum ShardStrategy {
+	MODULO,
+	RANGE
+}
@@ -8,4 +8,11 @@ import java.lang.annotation.*;
 public @interface Table {
 	String tableName();
 	String primaryKeyName() default "";
+	int cacheSize() default 0;
+	long cacheTtlSeconds() default 60;
+	boolean cacheMisses() default false;
+	boolean trackChanges() default false;
+	String shardKey() default "";
+	ShardStrategy shardStrategy() default ShardStrategy.MODULO;
+	long[] shardRanges() default {};
 }
@@ -5,35 +5,91 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.IncorrectResultSetColumnCountException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.sql.*;
-import java.util.Date;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public abstract class AbstractDAO<T> implements ApplicationContextAware {
 
+    private static final int MAX_PLACEHOLDERS = 65535;
+    private static final long DEFAULT_MAX_ALLOWED_PACKET = 4 * 1024 * 1024;
+    private static final int PRIMARY_KEY_BATCH_SIZE = 1000;
+    private static final int LOAD_CHUNK_SIZE = 100000;
+    private static final String TABLE_ROWS_SQL = "select table_rows from information_schema.tables where table_schema = database() and table_name = ?";
+
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     protected JdbcTemplate jdbcTemplate;
-    private SimpleJdbcInsert simpleJdbcInsert;
+    private InsertStatementCreator insertCreator;
+    private InsertStatementCreator insertReturningKeyCreator;
 
     private DataSource dataSource;
+    private List<DataSource> replicaDataSources = new ArrayList<>();
+    private DataSourceRouter dataSourceRouter;
+    private List<DataSource> shardDataSources = new ArrayList<>();
+    private ShardRouter shardRouter;
+    private ExecutorService asyncExecutor;
 
     private String tableName;
     private String primaryKeyName;
     private Class<T> dbPojoClass;
-    private Map<String, Method> methodMap = new HashMap<>();
-    private Map<String, Field> fieldMap = new HashMap<>();
+    private GeneratedMapping<T> generatedMapping;
+    private Map<String, PojoProperty> properties = new LinkedHashMap<>();
+    private String selectByPrimaryKeySql;
+    private String deleteByPrimaryKeySql;
+    private PojoMapper<T> pojoMapper;
+    private PojoWriter<T> pojoWriter;
+    private volatile Long maxAllowedPacket;
+    private volatile EntityCache<T> entityCache;
+    private int streamingFetchSize = Integer.MIN_VALUE;
+    private volatile QueryMetrics queryMetrics;
+    private volatile SlowQueryLog slowQueryLog;
+    private final ConcurrentMap<Class<?>, Projection<?>> projections = new ConcurrentHashMap<>();
+    private final CountCache countCache = new CountCache();
+    private ChangeTracker changeTracker;
+    private final ConcurrentMap<BitSet, String> updateSqls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<JdbcTemplate, Boolean> localInfileSupport = new ConcurrentHashMap<>();
+    private final ConcurrentMap<JdbcTemplate, Boolean> multiQuerySupport = new ConcurrentHashMap<>();
 
     private ApplicationContext context;
 
@@ -48,12 +104,42 @@ public abstract class AbstractDAO<T> implements ApplicationContextAware {
         initDataSource();
 
         this.jdbcTemplate = new JdbcTemplate(dataSource);
-        this.simpleJdbcInsert = new SimpleJdbcInsert(dataSource).withTableName(tableName).usingGeneratedKeyColumns(primaryKeyName);
+        com.jtool.db.mysql.annotation.DataSource dataSourceAnnotation = this.getClass().getAnnotation(com.jtool.db.mysql.annotation.DataSource.class);
+        this.dataSourceRouter = new DataSourceRouter(jdbcTemplate, replicaDataSources, dataSourceAnnotation.loadBalance(), dataSourceAnnotation.readYourWritesMillis());
 
         initReflectionDbPojoClass();
         initReflectionBinding();
 
-        checkPojoClass(dbPojoClass);
+        if (generatedMapping == null) {
+            checkPojoClass(dbPojoClass);
+        }
+
+        Supplier<T> constructor = generatedMapping == null ? ReflectionUtil.compileConstructor(dbPojoClass) : generatedMapping::newInstance;
+        this.pojoMapper = new PojoMapper<>(dbPojoClass, constructor, properties);
+        String shardKey = shardDataSources.isEmpty() ? null : this.getClass().getAnnotation(Table.class).shardKey();
+        this.pojoWriter = new PojoWriter<>(dbPojoClass, properties, primaryKeyName, primaryKeyName.equals(shardKey), shardKey);
+        String insertSql = "insert into " + tableName + " (" + String.join(", ", pojoWriter.getColumns()) + ") values ("
+                + String.join(", ", Collections.nCopies(pojoWriter.getColumns().length, "?")) + ")";
+        this.insertCreator = new InsertStatementCreator(insertSql, false);
+        this.insertReturningKeyCreator = new InsertStatementCreator(insertSql, true);
+
+        initShardRouter();
+        initEntityCache();
+        initChangeTracker();
+        initQueryListener();
+        //最后取线程池，前面初始化失败时不会占用计数
+        this.asyncExecutor = AsyncExecutors.forDataSource(dataSource, dataSourceAnnotation.asyncThreads());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        SchemaSnapshot.of(context).forget(dataSource);
+        if (asyncExecutor != null) {
+            AsyncExecutors.release(dataSource);
+        }
+        if (shardRouter != null) {
+            shardRouter.shutdown();
+        }
     }
 
     private void checkPojoClass(Class<T> dbPojoClass) {
@@ -69,12 +155,78 @@ public abstract class AbstractDAO<T> implements ApplicationContextAware {
         primaryKeyName = this.getClass().getAnnotation(Table.class).primaryKeyName();
     }
 
+    private void initEntityCache() {
+        Table table = this.getClass().getAnnotation(Table.class);
+        if (table.cacheSize() > 0) {
+            if (primaryKeyName == null || "".equals(primaryKeyName)) {
+                throw new IllegalStateException("需要使用缓存,必须在dao的@Table注解设置primaryKeyName的值");
+            }
+            enableEntityCache(table.cacheSize(), table.cacheTtlSeconds(), TimeUnit.SECONDS, table.cacheMisses());
+        }
+    }
+
+    private void initChangeTracker() {
+        if (this.getClass().getAnnotation(Table.class).trackChanges()) {
+            requirePrimaryKeyName("trackChanges");
+            changeTracker = new ChangeTracker();
+        }
+    }
+
+    private void initQueryListener() {
+        Map<String, QueryListener> listeners = context.getBeansOfType(QueryListener.class);
+        if (listeners.size() == 1) {
+            setQueryListener(listeners.values().iterator().next());
+        }
+    }
+
+    private void initShardRouter() {
+        if (!shardDataSources.isEmpty()) {
+            Table table = this.getClass().getAnnotation(Table.class);
+            shardRouter = new ShardRouter(tableName, table.shardKey(), table.shardStrategy(), table.shardRanges(), shardDataSources);
+            if (!properties.containsKey(shardRouter.getShardKey())) {
+                throw new IllegalStateException("表" + tableName + "里面找不到分片字段: " + shardRouter.getShardKey());
+            }
+        }
+    }
+
+    //有TableProcessor生成的代码并且和注解一致时直接使用，否则从泛型参数反射取得pojo类型
+    @SuppressWarnings("unchecked")
     private void initReflectionDbPojoClass() throws ClassNotFoundException {
-        dbPojoClass = (Class<T>)ReflectionUtil.getClass(ReflectionUtil.getParameterizedTypes(this)[0]);
+        GeneratedMapping<T> mapping = (GeneratedMapping<T>) GeneratedMappings.find(ClassUtils.getUserClass(this));
+        if (mapping != null && tableName.equals(mapping.tableName()) && primaryKeyName.equals(mapping.primaryKeyName())) {
+            generatedMapping = mapping;
+            dbPojoClass = mapping.pojoClass();
+            selectByPrimaryKeySql = mapping.selectByPrimaryKeySql();
+            deleteByPrimaryKeySql = mapping.deleteByPrimaryKeySql();
+        } else {
+            dbPojoClass = (Class<T>)ReflectionUtil.getClass(ReflectionUtil.getParameterizedTypes(this)[0]);
+            if (primaryKeyName != null && !"".equals(primaryKeyName)) {
+                selectByPrimaryKeySql = "select * from " + tableName + " where " + primaryKeyName + " = ?";
+                deleteByPrimaryKeySql = "delete from " + tableName + " where " + primaryKeyName + " = ?";
+            }
+        }
     }
 
     private void initReflectionBinding() throws SQLException, NoSuchFieldException, NoSuchMethodException {
+        SchemaSnapshot schemaSnapshot = SchemaSnapshot.of(context);
+        schemaSnapshot.prefetch(context);
+
+        List<String> columns = schemaSnapshot.columns(jdbcTemplate.getDataSource(), tableName);
+        if (columns == null) {
+            columns = readColumnsFromMetaData();
+        }
+
+        for (String columnName : columns) {
+            if (generatedMapping != null) {
+                properties.put(columnName, PojoProperty.generated(generatedMapping, columnName));
+            } else {
+                properties.put(columnName, PojoProperty.reflect(dbPojoClass, columnName));
+            }
+        }
+    }
 
+    private List<String> readColumnsFromMetaData() throws SQLException {
+        List<String> columns = new ArrayList<>();
         try(final Connection connection = jdbcTemplate.getDataSource().getConnection()) {
             final DatabaseMetaData dmd = connection.getMetaData();
 
@@ -87,28 +239,29 @@ public abstract class AbstractDAO<T> implements ApplicationContextAware {
                 final ResultSet crs = dmd.getColumns(catalog, "%", tableName, "%");
 
                 while (crs.next()) {
-                    final String columnName = crs.getString("COLUMN_NAME");
-                    final String methodName = "set" + columnName.substring(0, 1).toUpperCase() + columnName.substring(1);
-
-                    final Field field = dbPojoClass.getDeclaredField(columnName);
-
-                    if (field == null) {
-                        throw new IllegalStateException("pojo里面找不到对应数据库的字段");
-                    } else {
-                        Method method = dbPojoClass.getDeclaredMethod(methodName, new Class[]{field.getType()});
-                        methodMap.put(columnName, method);
-                        fieldMap.put(columnName, field);
-                    }
+                    columns.add(crs.getString("COLUMN_NAME"));
                 }
             } else {
-                throw new IllegalStateException();
+                throw new IllegalStateException("数据库里面找不到表: " + tableName);
             }
         }
+        return columns;
     }
 
     private void initDataSource() {
-        String dataSourceString = this.getClass().getAnnotation(com.jtool.db.mysql.annotation.DataSource.class).value();
-        dataSource = context.getBean(dataSourceString, DataSource.class);
+        com.jtool.db.mysql.annotation.DataSource dataSourceAnnotation = this.getClass().getAnnotation(com.jtool.db.mysql.annotation.DataSource.class);
+        for (String shard : dataSourceAnnotation.shards()) {
+            shardDataSources.add(context.getBean(shard, DataSource.class));
+        }
+        if (shardDataSources.isEmpty()) {
+            dataSource = context.getBean(dataSourceAnnotation.value(), DataSource.class);
+            for (String replica : dataSourceAnnotation.replicas()) {
+                replicaDataSources.add(context.getBean(replica, DataSource.class));
+            }
+        } else {
+            //分片的dao用第一个分片读取表结构
+            dataSource = shardDataSources.get(0);
+        }
     }
 
     public String getTableName() {
@@ -127,111 +280,307 @@ public abstract class AbstractDAO<T> implements ApplicationContextAware {
         if (primaryKeyName == null || "".equals(primaryKeyName)) {
             throw new IllegalStateException("需要使用selectByPrimaryKey方法,必须在dao的@Table注解设置primaryKeyName的值");
         }
+        final EntityCache<T> cache = usableEntityCache();
+        final Object cacheKey = cache != null ? normalizePrimaryKey(id) : null;
+        final long generation = cache != null ? cache.generation() : 0;
+        if (cache != null) {
+            Optional<T> cached = cache.get(cacheKey);
+            if (cached != null) {
+                log.debug("根据ID从缓存查找到：{} \t {}", id, cached);
+                return cached;
+            }
+        }
         try {
-            String selectByIdSQL = "select * from " + tableName + " where " + primaryKeyName + " = ?";
+            String selectByIdSQL = selectByPrimaryKeySql;
             log.debug("准备根据ID查找：{} \t {}", selectByIdSQL, id);
-            T t = jdbcTemplate.queryForObject(selectByIdSQL, makeRowMapperInstance(), id.toString());
+            T t = DataAccessUtils.requiredSingleResult(flatten(scatter(lookupTargets(shardOfPrimaryKey(id), cache != null),
+                    template -> queryOn(template, selectByIdSQL, new Object[]{primaryKeyArg(id)}, makeRowMapperInstance()))));
             log.debug("根据ID查找到：{}", t);
+            if (cache != null) {
+                cache.put(cacheKey, t, generation);
+            }
             return Optional.of(t);
         } catch (EmptyResultDataAccessException e) {
             log.debug("根据ID({})查找不到对象", id);
+            if (cache != null) {
+                cache.putMiss(cacheKey, generation);
+            }
             return Optional.empty();
         }
     }
 
+    public CompletableFuture<Optional<T>> selectByPrimaryKeyAsync(Object id) {
+        return async(() -> selectByPrimaryKeyOpt(id));
+    }
+
+    public <K> CompletableFuture<Map<K, T>> selectByPrimaryKeysAsync(Collection<K> ids) {
+        return async(() -> selectByPrimaryKeys(ids));
+    }
+
+    //按主键批量查找，每PRIMARY_KEY_BATCH_SIZE个主键一条 in (...) 语句，返回的Map按传入主键的顺序排列，找不到的主键不会出现在Map里面
+    public <K> Map<K, T> selectByPrimaryKeys(Collection<K> ids) {
+        requirePrimaryKeyName("selectByPrimaryKeys");
+
+        Map<Object, K> requested = new LinkedHashMap<>();
+        for (K id : ids) {
+            requested.put(normalizePrimaryKey(id), id);
+        }
+
+        final EntityCache<T> cache = usableEntityCache();
+        final long generation = cache != null ? cache.generation() : 0;
+        Map<Object, T> found = new HashMap<>();
+        List<Object> batch = new ArrayList<>();
+        for (Map.Entry<Object, K> entry : requested.entrySet()) {
+            if (cache != null) {
+                Optional<T> cached = cache.get(entry.getKey());
+                if (cached != null) {
+                    cached.ifPresent(t -> found.put(entry.getKey(), t));
+                    continue;
+                }
+            }
+            batch.add(primaryKeyArg(entry.getValue()));
+            if (batch.size() == PRIMARY_KEY_BATCH_SIZE) {
+                selectByPrimaryKeyBatch(batch, found, cache, generation);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            selectByPrimaryKeyBatch(batch, found, cache, generation);
+        }
+
+        Map<K, T> result = new LinkedHashMap<>();
+        for (Map.Entry<Object, K> entry : requested.entrySet()) {
+            T t = found.get(entry.getKey());
+            if (t != null) {
+                result.put(entry.getValue(), t);
+            }
+        }
+        return result;
+    }
+
+    //cache不为null时查到的结果要放进缓存，generation是开始查找之前缓存的generation
+    private void selectByPrimaryKeyBatch(List<Object> batch, Map<Object, T> found, EntityCache<T> cache, long generation) {
+        log.debug("准备根据{}个ID查找：{}", batch.size(), tableName);
+        List<T> list;
+        if (shardRouter != null && primaryKeyName.equals(shardRouter.getShardKey())) {
+            Map<Integer, List<Object>> shardBatches = new TreeMap<>();
+            for (Object id : batch) {
+                shardBatches.computeIfAbsent(shardRouter.shardOf(id), shard -> new ArrayList<>()).add(id);
+            }
+            list = new ArrayList<>();
+            for (Map.Entry<Integer, List<Object>> entry : shardBatches.entrySet()) {
+                list.addAll(queryByPrimaryKeys(shardRouter.shard(entry.getKey()), entry.getValue()));
+            }
+        } else {
+            list = flatten(scatter(lookupTargets(null, cache != null), template -> queryByPrimaryKeys(template, batch)));
+        }
+        log.debug("根据ID查找到记录条数：{}", list.size());
+        Map<Object, T> batchFound = new HashMap<>();
+        for (T t : list) {
+            batchFound.put(normalizePrimaryKey(pojoWriter.primaryKeyValue(t)), t);
+        }
+        if (cache != null) {
+            for (Object id : batch) {
+                Object cacheKey = normalizePrimaryKey(id);
+                T t = batchFound.get(cacheKey);
+                if (t == null) {
+                    cache.putMiss(cacheKey, generation);
+                } else {
+                    cache.put(cacheKey, t, generation);
+                }
+            }
+        }
+        found.putAll(batchFound);
+    }
+
+    private List<T> queryByPrimaryKeys(JdbcTemplate template, List<Object> ids) {
+        String sql = "select * from " + tableName + " where " + primaryKeyName + " in (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        return queryOn(template, sql, ids.toArray(), makeRowMapperInstance());
+    }
+
+    //数字和字符串直接绑定，避免数字主键被当成字符串比较导致用不上索引
+    private static Object primaryKeyArg(Object id) {
+        if (id instanceof Number || id instanceof CharSequence) {
+            return id;
+        }
+        return id.toString();
+    }
+
+    //Integer、Long、String形式的主键统一成同一个key，用来把查出来的记录对应回传入的主键
+    private static Object normalizePrimaryKey(Object id) {
+        if (id instanceof Byte || id instanceof Short || id instanceof Integer || id instanceof Long) {
+            return ((Number) id).longValue();
+        }
+        String str = id.toString();
+        try {
+            return Long.valueOf(str);
+        } catch (NumberFormatException e) {
+            return str;
+        }
+    }
+
     protected RowMapper<T> makeRowMapperInstance() {
-        return new RowMapper<T>() {
-            @Override
-            public T mapRow(ResultSet rs, int i) throws SQLException {
+        return newRowMapper(0);
+    }
 
-                try {
+    //结果集最后ignoredColumns列不映射，分片合并排序时额外查出来的排序字段用
+    RowMapper<T> newRowMapper(int ignoredColumns) {
+        final RowMapper<T> rowMapper = pojoMapper.newRowMapper(ignoredColumns);
+        final ChangeTracker tracker = changeTracker;
+        if (tracker == null) {
+            return rowMapper;
+        }
+        return (rs, rowNum) -> {
+            T t = rowMapper.mapRow(rs, rowNum);
+            tracker.track(t, pojoWriter.updateValues(t));
+            return t;
+        };
+    }
+
+    //@Table(trackChanges = true)时只写查出来以后修改过的字段，否则（或者对象不是查出来的）写所有字段；
+    //主键和分片字段不会被修改，没有修改过的字段时不执行任何语句，返回0
+    public int updateByPrimaryKey(T object) {
+        requirePrimaryKeyName("updateByPrimaryKey");
+        PendingUpdate update = pendingUpdate(object);
+        if (update.changed.isEmpty()) {
+            log.debug("没有修改过的字段，不需要更新：{}", object);
+            return 0;
+        }
+        Object[] args = new Object[update.changed.cardinality() + 1];
+        int index = 0;
+        for (int i = update.changed.nextSetBit(0); i >= 0; i = update.changed.nextSetBit(i + 1)) {
+            args[index++] = update.values[i];
+        }
+        args[index] = update.id;
+        String sql = updateSql(update.changed);
+        log.debug("执行修改操作：{} \t {}", sql, args);
+        int i = updateOn(writeTemplateFor(object), sql, args);
+        dataSourceRouter.markWrite();
+        log.debug("执行修改操作条数：{}", i);
+        afterUpdate(Collections.singletonList(update));
+        return i;
+    }
+
+    //按分片和修改过的字段分组，同一组用同一条update语句走JDBC batch，返回影响的记录条数
+    public int updateAll(Collection<? extends T> objects) {
+        requirePrimaryKeyName("updateAll");
+        List<PendingUpdate> updated = new ArrayList<>();
+        int result = 0;
+        for (Map.Entry<JdbcTemplate, List<T>> entry : groupByShard(objects).entrySet()) {
+            Map<BitSet, List<PendingUpdate>> groups = new LinkedHashMap<>();
+            for (T object : entry.getValue()) {
+                PendingUpdate update = pendingUpdate(object);
+                if (!update.changed.isEmpty()) {
+                    groups.computeIfAbsent(update.changed, changed -> new ArrayList<>()).add(update);
+                }
+            }
+            for (Map.Entry<BitSet, List<PendingUpdate>> group : groups.entrySet()) {
+                String sql = updateSql(group.getKey());
+                log.debug("准备批量修改{}条记录：{}", group.getValue().size(), sql);
+                result += executeOn(entry.getKey(), connection -> connection.prepareStatement(sql), sql, () -> null,
+                        ps -> batchUpdate(ps, group.getValue()), count -> count);
+                updated.addAll(group.getValue());
+            }
+        }
+        if (!updated.isEmpty()) {
+            dataSourceRouter.markWrite();
+            afterUpdate(updated);
+        }
+        log.debug("批量修改影响记录条数：{}", result);
+        return result;
+    }
+
+    //每PRIMARY_KEY_BATCH_SIZE条执行一次JDBC batch，返回影响的记录条数
+    private int batchUpdate(PreparedStatement ps, List<PendingUpdate> updates) throws SQLException {
+        int result = 0;
+        for (int from = 0; from < updates.size(); from += PRIMARY_KEY_BATCH_SIZE) {
+            for (PendingUpdate update : updates.subList(from, Math.min(from + PRIMARY_KEY_BATCH_SIZE, updates.size()))) {
+                pojoWriter.bindUpdate(ps, update.changed, update.values, update.id);
+                ps.addBatch();
+            }
+            for (int count : ps.executeBatch()) {
+                //rewriteBatchedStatements时驱动可能只返回SUCCESS_NO_INFO，按一条计算
+                result += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+        }
+        return result;
+    }
+
+    private PendingUpdate pendingUpdate(T object) {
+        Object id = pojoWriter.primaryKeyValue(object);
+        if (id == null) {
+            throw new IllegalStateException("主键的值为null，不能按主键修改：" + object);
+        }
+        Object[] values = pojoWriter.updateValues(object);
+        BitSet changed;
+        if (changeTracker != null) {
+            changed = changeTracker.changed(object, values);
+        } else {
+            changed = new BitSet(values.length);
+            changed.set(0, values.length);
+        }
+        return new PendingUpdate(object, id, values, changed);
+    }
+
+    private String updateSql(BitSet changed) {
+        String sql = updateSqls.get(changed);
+        if (sql == null) {
+            String[] columns = pojoWriter.getUpdateColumns();
+            StringJoiner set = new StringJoiner(", ");
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                set.add(columns[i] + " = ?");
+            }
+            sql = "update " + tableName + " set " + set + " where " + primaryKeyName + " = ?";
+            updateSqls.putIfAbsent(changed, sql);
+        }
+        return sql;
+    }
 
-                    T object = dbPojoClass.newInstance();
-
-                    ResultSetMetaData resultSetMetaData = rs.getMetaData();
-
-                    for (int j = 1; j <= resultSetMetaData.getColumnCount(); j++) {
-
-                        String columnName = resultSetMetaData.getColumnName(j);
-
-                        switch (fieldMap.get(columnName).getGenericType().getTypeName()) {
-                            case "byte" :
-                            case "short" :
-                            case "int" :
-                            case "long" :
-                            case "float" :
-                            case "double" :
-                                throw new IllegalStateException(dbPojoClass.getName() + "不应该使用简单类型: " + columnName);
-                            case "java.lang.Byte" :
-                                byte b = rs.getByte(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, b);
-                                }
-                                break;
-                            case "java.lang.Short" :
-                                short s = rs.getShort(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, s);
-                                }
-                                break;
-                            case "java.lang.Integer" :
-                                int anInt = rs.getInt(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, anInt);
-                                }
-                                break;
-                            case "java.lang.Long" :
-                                long l = rs.getLong(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, l);
-                                }
-                                break;
-                            case "java.lang.Float" :
-                                float f = rs.getFloat(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, f);
-                                }
-                                break;
-                            case "java.lang.Double" :
-                                double d = rs.getDouble(j);
-                                if (!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, d);
-                                }
-                                break;
-                            case "java.lang.String" :
-                                String str = rs.getString(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, str);
-                                }
-                                break;
-                            case "java.sql.Timestamp" :
-                            case "java.util.Date" :
-                                Timestamp t = rs.getTimestamp(j);
-                                if(!rs.wasNull()) {
-                                    methodMap.get(columnName).invoke(object, new Date(t.getTime()));
-                                }
-                                break;
-                            default:
-                                throw new IllegalStateException();
+    //写入成功以后马上记下新的值作为下一次比较的基准，同一个事务里面再改回去也能比较出来；
+    //事务回滚时数据库里面还是旧的值，去掉快照，下一次修改写所有字段
+    private void afterUpdate(List<PendingUpdate> updated) {
+        final ChangeTracker tracker = changeTracker;
+        if (tracker != null) {
+            updated.forEach(update -> tracker.track(update.object, update.values));
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status != STATUS_COMMITTED) {
+                            updated.forEach(update -> tracker.forget(update.object));
                         }
                     }
-                    return object;
-                } catch (Exception e) {
-                    log.error("反射绑定的时候发生错误", e);
-                    throw new IllegalStateException(e);
-                }
+                });
             }
-        };
+        }
+        invalidateEntityCache(cache -> updated.forEach(update -> cache.invalidate(normalizePrimaryKey(update.id))));
+    }
+
+    private static final class PendingUpdate {
+
+        private final Object object;
+        private final Object id;
+        private final Object[] values;
+        private final BitSet changed;
+
+        private PendingUpdate(Object object, Object id, Object[] values, BitSet changed) {
+            this.object = object;
+            this.id = id;
+            this.values = values;
+            this.changed = changed;
+        }
     }
 
     public int deleteByPrimaryKey(Object id) {
         if (primaryKeyName == null || "".equals(primaryKeyName)) {
             throw new IllegalStateException("需要使用deleteByPrimaryKey方法,必须在dao的@Table注解设置primaryKeyName的值");
         }
-        String sql = "delete from " + tableName + " where " + primaryKeyName + " = ?";
+        String sql = deleteByPrimaryKeySql;
         log.debug("准备根据ID删除记录：{} \t {}", sql, id);
-        int i = jdbcTemplate.update(sql, id);
+        int i = sum(scatter(writeTargets(shardOfPrimaryKey(id)), template -> updateOn(template, sql, new Object[]{id})));
+        dataSourceRouter.markWrite();
         log.debug("删除记录条数：{}", i);
+        invalidateEntityCache(cache -> cache.invalidate(normalizePrimaryKey(id)));
         return i;
     }
 
@@ -239,31 +588,479 @@ public abstract class AbstractDAO<T> implements ApplicationContextAware {
         if (primaryKeyName == null || "".equals(primaryKeyName)) {
             throw new IllegalStateException("需要使用addAndReturnPrimaryKey方法,必须在dao的@Table注解设置primaryKeyName的值");
         }
-        SqlParameterSource sps = new BeanPropertySqlParameterSource(object);
         log.debug("准备插入对象: {}", object);
-        long id = simpleJdbcInsert.executeAndReturnKey(sps).longValue();
+        long id;
+        if (!isShardedByPrimaryKey()) {
+            id = insertOn(writeTemplateFor(object), insertReturningKeyCreator, object);
+        } else {
+            insertOn(writeTemplateFor(object), insertCreator, object);
+            id = ((Number) pojoWriter.primaryKeyValue(object)).longValue();
+        }
+        dataSourceRouter.markWrite();
         log.debug("插入成功: {} \t primary key为:{}", object, id);
+        invalidateEntityCache(cache -> cache.invalidate(id));
         return id;
     }
 
+    public long[] addAllAndReturnPrimaryKeys(Collection<? extends T> objects) {
+        return addAllAndReturnPrimaryKeys(objects, false);
+    }
+
+    /**
+     * 批量插入并按传入的顺序返回主键，每段多行insert只需要一次往返。
+     * setPrimaryKeys为true时把自增主键设置回对象；按主键分片时主键由应用分配，直接返回对象里面的主键
+     */
+    public long[] addAllAndReturnPrimaryKeys(Collection<? extends T> objects, boolean setPrimaryKeys) {
+        if (primaryKeyName == null || "".equals(primaryKeyName)) {
+            throw new IllegalStateException("需要使用addAllAndReturnPrimaryKeys方法,必须在dao的@Table注解设置primaryKeyName的值");
+        }
+        List<T> list = new ArrayList<>(objects);
+        long[] result = new long[list.size()];
+        if (isShardedByPrimaryKey()) {
+            addAll(list);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = ((Number) pojoWriter.primaryKeyValue(list.get(i))).longValue();
+            }
+            return result;
+        }
+
+        //按分片分组时记下每个对象在传入集合里面的位置，主键按位置放回
+        Map<JdbcTemplate, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < result.length; i++) {
+            positions.computeIfAbsent(writeTemplateFor(list.get(i)), template -> new ArrayList<>()).add(i);
+        }
+        String insertHead = "insert into " + tableName + " (" + String.join(", ", pojoWriter.getColumns()) + ") values ";
+        for (Map.Entry<JdbcTemplate, List<Integer>> entry : positions.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            List<T> shardObjects = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                shardObjects.add(list.get(index));
+            }
+            int[] next = {0};
+            execMultiRowInsert(entry.getKey(), insertHead, "", shardObjects, pojoWriter.getColumns().length, pojoWriter::values,
+                    key -> result[indexes.get(next[0]++)] = key);
+        }
+
+        if (setPrimaryKeys) {
+            PojoProperty primaryKey = properties.get(primaryKeyName);
+            Class<?> keyType = ClassUtils.resolvePrimitiveIfNecessary(primaryKey.type);
+            for (int i = 0; i < result.length; i++) {
+                primaryKey.setter.accept(list.get(i), DefaultConversionService.getSharedInstance().convert(result[i], keyType));
+            }
+        }
+        log.debug("批量插入成功: {}条记录", result.length);
+        invalidateEntityCache(cache -> {
+            cache.invalidateMisses();
+            for (long id : result) {
+                cache.invalidate(id);
+            }
+        });
+        return result;
+    }
+
     public void add(Object object) {
-        SqlParameterSource sps = new BeanPropertySqlParameterSource(object);
         log.debug("准备插入对象：{}", object);
-        simpleJdbcInsert.execute(sps);
+        insertOn(writeTemplateFor(object), insertCreator, object);
+        dataSourceRouter.markWrite();
         log.debug("插入成功: {}", object);
+        invalidateEntityCache(EntityCache::invalidateMisses);
+    }
+
+    public int addAll(Collection<? extends T> objects) {
+        String insertHead = "insert into " + tableName + " (" + String.join(", ", pojoWriter.getColumns()) + ") values ";
+        int result = 0;
+        for (Map.Entry<JdbcTemplate, List<T>> entry : groupByShard(objects).entrySet()) {
+            for (ChunkResult chunk : execMultiRowInsert(entry.getKey(), insertHead, "", entry.getValue(), pojoWriter.getColumns().length, pojoWriter::values, null)) {
+                result += chunk.getAffectedRows();
+            }
+        }
+        invalidateEntityCache(EntityCache::invalidateMisses);
+        return result;
+    }
+
+    //insert ... on duplicate key update：主键或者唯一索引已经存在的记录改成修改updateColumns，
+    //updateColumns为空时修改除了主键和分片字段以外的所有字段。写入的列包含主键，主键为null的记录由数据库自增。
+    //和addAll一样按max_allowed_packet分段，返回每一段的记录条数和影响记录条数
+    public List<ChunkResult> upsertAll(Collection<? extends T> objects, String... updateColumns) {
+        String[] columns = pojoWriter.getAllColumns();
+        String[] setColumns = updateColumns.length == 0 ? pojoWriter.getUpdateColumns() : updateColumns;
+        if (setColumns.length == 0) {
+            throw new IllegalStateException("表" + tableName + "没有可以修改的字段");
+        }
+        StringJoiner set = new StringJoiner(", ", " on duplicate key update ", "");
+        String shardKey = shardRouter == null ? null : shardRouter.getShardKey();
+        for (String updateColumn : setColumns) {
+            //和MySQL一样字段名不区分大小写
+            String column = properties.keySet().stream().filter(updateColumn::equalsIgnoreCase).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("表" + tableName + "里面找不到字段: " + updateColumn));
+            if (column.equalsIgnoreCase(primaryKeyName)) {
+                throw new IllegalArgumentException("upsert不能修改主键: " + column);
+            }
+            if (column.equalsIgnoreCase(shardKey)) {
+                throw new IllegalArgumentException("upsert不能修改分片字段: " + column);
+            }
+            set.add(column + " = values(" + column + ")");
+        }
+        String insertHead = "insert into " + tableName + " (" + String.join(", ", columns) + ") values ";
+        List<ChunkResult> result = new ArrayList<>();
+        for (Map.Entry<JdbcTemplate, List<T>> entry : groupByShard(objects).entrySet()) {
+            result.addAll(execMultiRowInsert(entry.getKey(), insertHead, set.toString(), entry.getValue(), columns.length, pojoWriter::allValues, null));
+        }
+        if (primaryKeyName != null && !"".equals(primaryKeyName)) {
+            invalidateEntityCache(cache -> {
+                cache.invalidateMisses();
+                for (T object : objects) {
+                    Object id = pojoWriter.primaryKeyValue(object);
+                    if (id != null) {
+                        cache.invalidate(normalizePrimaryKey(id));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 大批量导入：用LOAD DATA LOCAL INFILE把对象按addAll的列顺序边序列化成TSV边交给驱动发送，不写临时文件。
+     * 驱动不是Connector/J、服务器关掉了local_infile（比如测试用的H2）或者连接参数不允许时退回addAll的分段多行insert。
+     * Connector/J 8.x默认不允许，要在连接参数里面加上allowLoadLocalInfile=true才会用LOAD DATA。返回导入的记录条数。
+     * LOAD DATA LOCAL相当于IGNORE：重复主键的记录被跳过，不能转换的值被截断，都只产生警告。为了和insert一样报错，
+     * 影响记录条数比发送的记录少或者有警告时抛出DataIntegrityViolationException，这时其他记录已经写入，在事务里面执行时会跟着回滚
+     */
+    public long loadAll(Stream<? extends T> objects) {
+        try (Stream<? extends T> stream = objects) {
+            return loadAll(stream.iterator());
+        }
+    }
+
+    public long loadAll(Iterator<? extends T> objects) {
+        long result = 0;
+        if (shardRouter == null) {
+            result = loadOn(jdbcTemplate, objects);
+        } else {
+            //分片时先攒一段再按分片分组，每个分片一条LOAD DATA
+            List<T> chunk = new ArrayList<>();
+            while (objects.hasNext()) {
+                chunk.add(objects.next());
+                if (chunk.size() == LOAD_CHUNK_SIZE || !objects.hasNext()) {
+                    for (Map.Entry<JdbcTemplate, List<T>> entry : groupByShard(chunk).entrySet()) {
+                        result += loadOn(entry.getKey(), entry.getValue().iterator());
+                    }
+                    chunk.clear();
+                }
+            }
+        }
+        invalidateEntityCache(EntityCache::invalidateMisses);
+        return result;
+    }
+
+    private long loadOn(JdbcTemplate template, Iterator<? extends T> objects) {
+        String[] columns = pojoWriter.getColumns();
+        if (localInfileSupport.computeIfAbsent(template, t -> t.execute((ConnectionCallback<Boolean>) LocalInfileLoader::isSupported))) {
+            String sql = "load data local infile 'jtool.tsv' into table " + tableName
+                    + " character set utf8mb4 fields terminated by '\\t' escaped by '\\\\' lines terminated by '\\n'"
+                    + " (" + String.join(", ", columns) + ")";
+            LocalInfileLoader.TsvInputStream in = new LocalInfileLoader.TsvInputStream(objects, pojoWriter::values);
+            log.debug("准备用LOAD DATA导入数据：{}", tableName);
+            try {
+                int i = executeOn(template, connection -> connection.prepareStatement(sql), sql, () -> new Object[0], ps -> {
+                    LocalInfileLoader.setInputStream(ps, in);
+                    int rows = ps.executeUpdate();
+                    log.debug("LOAD DATA发送记录条数：{}，影响记录条数：{}", in.getRows(), rows);
+                    SQLWarning warning = ps.getWarnings();
+                    if (rows < in.getRows() || warning != null) {
+                        throw new DataIntegrityViolationException("LOAD DATA发送了" + in.getRows() + "条记录，写入了" + rows + "条"
+                                + (warning == null ? "" : "，警告：" + warning.getMessage()) + ": " + tableName);
+                    }
+                    return rows;
+                }, rows -> rows);
+                dataSourceRouter.markWrite();
+                return i;
+            } catch (DataAccessException e) {
+                //被拒绝时驱动还没有读数据流，对象都还在，可以改用批量插入
+                if (in.getRows() > 0 || !LocalInfileLoader.isDisabledError(e)) {
+                    throw e;
+                }
+                localInfileSupport.put(template, false);
+                log.warn("LOAD DATA LOCAL INFILE被客户端或者服务器拒绝，改用批量插入：" + tableName, e);
+            }
+        }
+
+        log.debug("数据库不支持LOAD DATA LOCAL INFILE，改用批量插入：{}", tableName);
+        String insertHead = "insert into " + tableName + " (" + String.join(", ", columns) + ") values ";
+        long result = 0;
+        List<T> chunk = new ArrayList<>();
+        while (objects.hasNext()) {
+            chunk.add(objects.next());
+            if (chunk.size() == LOAD_CHUNK_SIZE || !objects.hasNext()) {
+                for (ChunkResult chunkResult : execMultiRowInsert(template, insertHead, "", chunk, columns.length, pojoWriter::values, null)) {
+                    result += chunkResult.getAffectedRows();
+                }
+                chunk.clear();
+            }
+        }
+        return result;
+    }
+
+    //按max_allowed_packet和占位符上限把对象切成多段，每段一条 insert ... values (...),(...) 语句，返回每段的记录条数和影响行数。
+    //generatedKeys不为null时按插入顺序接收自增主键
+    private List<ChunkResult> execMultiRowInsert(JdbcTemplate template, String insertHead, String insertTail, Collection<? extends T> objects,
+                                                 int columnCount, Function<Object, Object[]> rowValues, LongConsumer generatedKeys) {
+        List<ChunkResult> result = new ArrayList<>();
+        if (objects.isEmpty()) {
+            return result;
+        }
+
+        final String rowPlaceholder = "(" + String.join(", ", Collections.nCopies(columnCount, "?")) + ")";
+        final long packetBudget = getMaxAllowedPacket() - insertHead.length() - insertTail.length() - 1024;
+        final int maxRows = Math.max(1, MAX_PLACEHOLDERS / Math.max(1, columnCount));
+
+        StringBuilder sql = new StringBuilder(insertHead);
+        List<Object> args = new ArrayList<>();
+        int rows = 0;
+        long size = 0;
+
+        for (T object : objects) {
+            Object[] values = rowValues.apply(object);
+            long rowSize = columnCount * 2 + 2;
+            for (Object value : values) {
+                rowSize += PojoWriter.estimateSize(value);
+            }
+
+            if (rows > 0 && (rows >= maxRows || size + rowSize > packetBudget)) {
+                result.add(execMultiRowInsertChunk(template, sql.append(insertTail).toString(), args, rows, generatedKeys));
+                sql.setLength(insertHead.length());
+                args.clear();
+                rows = 0;
+                size = 0;
+            }
+
+            if (rows > 0) {
+                sql.append(", ");
+            }
+            sql.append(rowPlaceholder);
+            Collections.addAll(args, values);
+            rows++;
+            size += rowSize;
+        }
+        result.add(execMultiRowInsertChunk(template, sql.append(insertTail).toString(), args, rows, generatedKeys));
+        return result;
+    }
+
+    private ChunkResult execMultiRowInsertChunk(JdbcTemplate template, String sql, List<Object> args, int rows, LongConsumer generatedKeys) {
+        log.debug("准备批量插入{}条记录：{}", rows, tableName);
+        int i = generatedKeys == null ? updateOn(template, sql, args.toArray()) : insertReturningKeys(template, sql, args.toArray(), rows, generatedKeys);
+        dataSourceRouter.markWrite();
+        log.debug("批量插入影响记录条数：{}", i);
+        return new ChunkResult(rows, i);
+    }
+
+    private long getMaxAllowedPacket() {
+        Long packet = maxAllowedPacket;
+        if (packet == null) {
+            try {
+                packet = jdbcTemplate.queryForObject("select @@max_allowed_packet", Long.class);
+            } catch (DataAccessException e) {
+                log.debug("无法读取max_allowed_packet，使用默认值{}", DEFAULT_MAX_ALLOWED_PACKET);
+                packet = DEFAULT_MAX_ALLOWED_PACKET;
+            }
+            maxAllowedPacket = packet;
+        }
+        return packet;
     }
 
     public List<Map<String, Object>> execSelectSqlAsRows(String sql, Object... args) {
+        return queryRows(null, sql, args);
+    }
+
+    public RowSet execSelectSqlAsRowSet(String sql, Object... args) {
+        return queryRowSet(null, sql, args);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <P> List<P> execSelectSqlAs(Class<P> type, String sql, Object... args) {
+        if (type == dbPojoClass) {
+            return (List<P>) execSelectSqlAsList(sql, args);
+        }
+        return queryAs(null, sql, args, projectionOf(type));
+    }
+
+    public long[] execSelectSqlAsLongs(String sql, Object... args) {
+        return queryLongs(null, sql, args);
+    }
+
+    public List<String> execSelectSqlAsStrings(String sql, Object... args) {
+        return queryAs(null, sql, args, projectionOf(String.class));
+    }
+
+    public Optional<T> execSelectSqlAsPojoOpt(String sql, Object... args) {
+        return queryPojoOpt(null, sql, args);
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> execSelectSqlAsRowsAsync(String sql, Object... args) {
+        return async(() -> execSelectSqlAsRows(sql, args));
+    }
+
+    public CompletableFuture<List<T>> execSelectSqlAsListAsync(String sql, Object... args) {
+        return async(() -> execSelectSqlAsList(sql, args));
+    }
+
+    public List<T> execSelectSqlAsList(String sql, Object... args) {
+        return queryList(null, sql, args);
+    }
+
+    public void execSelectSqlForEach(String sql, Consumer<? super T> consumer, Object... args) {
+        queryForEach(null, sql, consumer, args);
+    }
+
+    //返回的Stream占用着连接，必须用try-with-resources关闭，或者一直读到最后一行
+    public Stream<T> execSelectSqlAsStream(String sql, Object... args) {
+        return queryStream(null, sql, args);
+    }
+
+    //下面这些方法的shard参数只对分片的dao有意义，为null时在所有分片上执行并把结果按分片顺序拼起来
+    List<Map<String, Object>> queryRows(Integer shard, String sql, Object[] args) {
         log.debug("准备查找数据：{} \t {}", sql, args);
-        List<Map<String, Object>> result = jdbcTemplate.queryForList(sql, args);
+        List<Map<String, Object>> result = flatten(scatter(readTargets(shard), template -> queryOn(template, sql, args, new ColumnMapRowMapper())));
         log.debug("查找到符合条件记录条数：{}", result.size());
         return result;
     }
 
-    public Optional<T> execSelectSqlAsPojoOpt(String sql, Object... args) {
+    RowSet queryRowSet(Integer shard, String sql, Object[] args) {
+        log.debug("准备查找数据：{} \t {}", sql, args);
+        RowSet result = RowSet.concat(scatter(readTargets(shard), template -> {
+            RowSet.Builder builder = new RowSet.Builder();
+            queryOn(template, sql, args, builder);
+            return builder.build();
+        }));
+        log.debug("查找到符合条件记录条数：{}", result.size());
+        return result;
+    }
+
+    <P> List<P> queryAs(Integer shard, String sql, Object[] args, Projection<P> projection) {
+        return queryMapped(shard, sql, args, projection.newRowMapper());
+    }
+
+    <R> List<R> queryMapped(Integer shard, String sql, Object[] args, RowMapper<R> rowMapper) {
+        log.debug("准备查找数据：{} \t {}", sql, args);
+        List<R> result = flatten(scatter(readTargets(shard), template -> queryOn(template, sql, args, rowMapper)));
+        log.debug("查找到符合条件记录条数：{}", result.size());
+        return result;
+    }
+
+    //事务里面数到的可能是未提交的数据，不读也不写缓存
+    int queryCountCached(Integer shard, String sql, Object[] args, long ttl, TimeUnit unit) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return queryCount(shard, sql, args);
+        }
+        List<Object> key = Arrays.asList(shard, sql, Arrays.asList(args));
+        Integer cached = countCache.get(key, unit.toNanos(ttl));
+        if (cached != null) {
+            log.debug("从缓存取得记录条数：{} \t {} \t {}", sql, args, cached);
+            return cached;
+        }
+        int result = queryCount(shard, sql, args);
+        countCache.put(key, result);
+        return result;
+    }
+
+    //InnoDB统计信息里面的估计行数，取不到时返回-1
+    long estimateTableRows(Integer shard) {
+        try {
+            long total = 0;
+            for (Long rows : scatter(readTargets(shard), template -> DataAccessUtils.singleResult(queryOn(template, TABLE_ROWS_SQL, new Object[]{tableName}, new SingleColumnRowMapper<>(Long.class))))) {
+                if (rows == null) {
+                    return -1;
+                }
+                total += rows;
+            }
+            log.debug("表{}的估计行数：{}", tableName, total);
+            return total;
+        } catch (DataAccessException e) {
+            log.debug("无法读取表{}的估计行数", tableName, e);
+            return -1;
+        }
+    }
+
+    //EXPLAIN估计的扫描行数乘以filtered，取不到时返回-1
+    long estimateRows(Integer shard, String sql, Object[] args) {
+        try {
+            long total = 0;
+            for (List<Map<String, Object>> plan : scatter(readTargets(shard), template -> queryOn(template, "explain " + sql, args, new ColumnMapRowMapper()))) {
+                if (plan.isEmpty() || !plan.get(0).containsKey("rows")) {
+                    return -1;
+                }
+                //Impossible WHERE之类的执行计划rows为null，表示没有记录
+                Object rows = plan.get(0).get("rows");
+                Object filtered = plan.get(0).get("filtered");
+                double estimate = rows == null ? 0 : ((Number) rows).doubleValue();
+                if (filtered instanceof Number) {
+                    estimate = estimate * ((Number) filtered).doubleValue() / 100;
+                }
+                total += Math.round(estimate);
+            }
+            log.debug("EXPLAIN估计的行数：{} \t {} \t {}", sql, args, total);
+            return total;
+        } catch (DataAccessException e) {
+            log.debug("无法通过EXPLAIN估计行数：{}", sql, e);
+            return -1;
+        }
+    }
+
+    //sql是select exists(...)，分片上执行时任意一个分片有记录就返回true
+    boolean queryExists(Integer shard, String sql, Object[] args) {
+        log.debug("准备判断是否有记录：{} \t {}", sql, args);
+        return scatter(readTargets(shard), template -> DataAccessUtils.requiredSingleResult(queryOn(template, sql, args, new SingleColumnRowMapper<>(Boolean.class))))
+                .contains(Boolean.TRUE);
+    }
+
+    //只取第一列，null按0处理
+    long[] queryLongs(Integer shard, String sql, Object[] args) {
+        log.debug("准备查找数据：{} \t {}", sql, args);
+        List<long[]> parts = scatter(readTargets(shard), template -> {
+            LongColumnCollector collector = new LongColumnCollector();
+            queryOn(template, sql, args, collector);
+            return Arrays.copyOf(collector.values, collector.size);
+        });
+        long[] result = parts.size() == 1 ? parts.get(0) : parts.stream().flatMapToLong(Arrays::stream).toArray();
+        log.debug("查找到符合条件记录条数：{}", result.length);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    <P> Projection<P> projectionOf(Class<P> type) {
+        Projection<P> projection = (Projection<P>) projections.get(type);
+        if (projection == null) {
+            projection = Projection.of(type);
+            Projection<P> existing = (Projection<P>) projections.putIfAbsent(type, projection);
+            if (existing != null) {
+                projection = existing;
+            }
+        }
+        return projection;
+    }
+
+    private static final class LongColumnCollector implements RowCallbackHandler {
+
+        private long[] values = new long[16];
+        private int size;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (size == 0 && rs.getMetaData().getColumnCount() != 1) {
+                throw new IncorrectResultSetColumnCountException(1, rs.getMetaData().getColumnCount());
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1));
+            }
+            values[size++] = rs.getLong(1);
+        }
+    }
+
+    Optional<T> queryPojoOpt(Integer shard, String sql, Object[] args) {
         try {
             log.debug("准备查找数据：{} \t {}", sql, args);
-            T t = jdbcTemplate.queryForObject(sql, makeRowMapperInstance(), args);
+            T t = DataAccessUtils.requiredSingleResult(flatten(scatter(readTargets(shard), template -> queryOn(template, sql, args, makeRowMapperInstance()))));
             log.debug("查找到记录：{}", t);
             return Optional.of(t);
         } catch (EmptyResultDataAccessException e) {
@@ -272,17 +1069,508 @@ public abstract class AbstractDAO<T> implements ApplicationContextAware {
         }
     }
 
-    public List<T> execSelectSqlAsList(String sql, Object... args) {
+    List<T> queryList(Integer shard, String sql, Object[] args) {
         log.debug("准备查找数据：{} \t {}", sql, args);
-        List<T> result = jdbcTemplate.query(sql, makeRowMapperInstance(), args);
+        List<T> result = flatten(scatter(readTargets(shard), template -> queryOn(template, sql, args, makeRowMapperInstance())));
         log.debug("查找到符合条件记录条数：{}", result.size());
         return result;
     }
 
-    public int execUpdate(String sql, Object... args) {
+    int queryCount(Integer shard, String sql, Object[] args) {
+        log.debug("准备计算记录条数：{} \t {}", sql, args);
+        int result = sum(scatter(readTargets(shard), template -> DataAccessUtils.requiredSingleResult(queryOn(template, sql, args, new SingleColumnRowMapper<>(Integer.class)))));
+        log.debug("计算记录条数为：{}", result);
+        return result;
+    }
+
+    //分片之间依次流式读取
+    void queryForEach(Integer shard, String sql, Consumer<? super T> consumer, Object[] args) {
+        log.debug("准备流式查找数据：{} \t {}", sql, args);
+        final RowMapper<T> rowMapper = makeRowMapperInstance();
+        final int[] rowNum = {0};
+        for (JdbcTemplate template : readTargets(shard)) {
+            template.query(new StreamingStatementCreator(sql, args), (RowCallbackHandler) rs -> {
+                consumer.accept(rowMapper.mapRow(rs, rowNum[0]++));
+            });
+        }
+        log.debug("流式查找结束，记录条数：{}", rowNum[0]);
+    }
+
+    Stream<T> queryStream(Integer shard, String sql, Object[] args) {
+        List<JdbcTemplate> targets = readTargets(shard);
+        if (targets.size() == 1) {
+            return streamOn(targets.get(0), sql, args);
+        }
+        return targets.stream().flatMap(template -> streamOn(template, sql, args));
+    }
+
+    int update(Integer shard, String sql, Object[] args) {
         log.debug("执行修改操作：{} \t {}", sql, args);
-        int result = jdbcTemplate.update(sql, args);
+        int result = sum(scatter(writeTargets(shard), template -> updateOn(template, sql, args)));
+        dataSourceRouter.markWrite();
         log.debug("执行修改操作条数：{}", result);
+        invalidateEntityCache(EntityCache::invalidateAll);
+        return result;
+    }
+
+    //没有设置QueryListener和慢查询记录时直接交给JdbcTemplate，不多做任何事情
+    private <R> List<R> queryOn(JdbcTemplate template, String sql, Object[] args, RowMapper<R> rowMapper) {
+        QueryMetrics metrics = queryMetrics;
+        SlowQueryLog slowLog = slowQueryLog;
+        if (slowLog == null) {
+            return metrics == null ? template.query(sql, args, rowMapper) : metrics.query(template, sql, args, rowMapper);
+        }
+        long start = System.nanoTime();
+        List<R> result = metrics == null ? template.query(sql, args, rowMapper) : metrics.query(template, sql, args, rowMapper);
+        recordIfSlow(slowLog, template, sql, args, System.nanoTime() - start, result.size());
+        return result;
+    }
+
+    //逐行交给handler，不生成List，返回行数
+    private int queryOn(JdbcTemplate template, String sql, Object[] args, RowCallbackHandler handler) {
+        QueryMetrics metrics = queryMetrics;
+        SlowQueryLog slowLog = slowQueryLog;
+        if (metrics != null && slowLog == null) {
+            return metrics.query(template, sql, args, handler);
+        }
+        long start = System.nanoTime();
+        int rows;
+        if (metrics != null) {
+            rows = metrics.query(template, sql, args, handler);
+        } else {
+            final int[] count = {0};
+            template.query(sql, args, (RowCallbackHandler) rs -> {
+                handler.processRow(rs);
+                count[0]++;
+            });
+            rows = count[0];
+        }
+        if (slowLog != null) {
+            recordIfSlow(slowLog, template, sql, args, System.nanoTime() - start, rows);
+        }
+        return rows;
+    }
+
+    private int updateOn(JdbcTemplate template, String sql, Object[] args) {
+        return updateOn(template, sql, args, null);
+    }
+
+    //beforeExecute在绑定完参数、执行之前调用
+    private int updateOn(JdbcTemplate template, String sql, Object[] args, PreparedStatementSetter beforeExecute) {
+        QueryMetrics metrics = queryMetrics;
+        SlowQueryLog slowLog = slowQueryLog;
+        if (slowLog == null) {
+            return metrics == null ? update(template, sql, args, beforeExecute) : metrics.update(template, sql, args, beforeExecute);
+        }
+        long start = System.nanoTime();
+        int result = metrics == null ? update(template, sql, args, beforeExecute) : metrics.update(template, sql, args, beforeExecute);
+        recordIfSlow(slowLog, template, sql, args, System.nanoTime() - start, result);
+        return result;
+    }
+
+    //自己绑定参数和执行的语句，和updateOn一样经过QueryListener和慢查询记录；args只在记录慢查询时取
+    private <R> R executeOn(JdbcTemplate template, PreparedStatementCreator creator, String sql, Supplier<Object[]> args,
+                            PreparedStatementCallback<R> action, ToIntFunction<R> rowsOf) {
+        QueryMetrics metrics = queryMetrics;
+        SlowQueryLog slowLog = slowQueryLog;
+        if (slowLog == null) {
+            return metrics == null ? template.execute(creator, action) : metrics.execute(template, creator, sql, action, rowsOf);
+        }
+        long start = System.nanoTime();
+        R result = metrics == null ? template.execute(creator, action) : metrics.execute(template, creator, sql, action, rowsOf);
+        recordIfSlow(slowLog, template, sql, args.get(), System.nanoTime() - start, rowsOf.applyAsInt(result));
+        return result;
+    }
+
+    private static int update(JdbcTemplate template, String sql, Object[] args, PreparedStatementSetter beforeExecute) {
+        if (beforeExecute == null) {
+            return template.update(sql, args);
+        }
+        PreparedStatementSetter argsSetter = new ArgumentPreparedStatementSetter(args);
+        return template.update(sql, ps -> {
+            argsSetter.setValues(ps);
+            beforeExecute.setValues(ps);
+        });
+    }
+
+    private void recordIfSlow(SlowQueryLog slowLog, JdbcTemplate template, String sql, Object[] args, long durationNanos, int rows) {
+        if (slowLog.isSlow(durationNanos)) {
+            slowLog.record(log, template, sql, args, durationNanos, rows);
+        }
+    }
+
+    private Stream<T> streamOn(JdbcTemplate template, String sql, Object[] args) {
+        log.debug("准备流式查找数据：{} \t {}", sql, args);
+        final DataSource readDataSource = template.getDataSource();
+        final Connection connection = DataSourceUtils.getConnection(readDataSource);
+        PreparedStatement ps = null;
+        final ResultSet rs;
+        try {
+            ps = createStreamingStatement(connection, sql, args);
+            rs = ps.executeQuery();
+        } catch (SQLException e) {
+            JdbcUtils.closeStatement(ps);
+            DataSourceUtils.releaseConnection(connection, readDataSource);
+            throw jdbcTemplate.getExceptionTranslator().translate("execSelectSqlAsStream", sql, e);
+        }
+
+        final PreparedStatement statement = ps;
+        final RowMapper<T> rowMapper = makeRowMapperInstance();
+        final Runnable closer = new Runnable() {
+            private boolean closed;
+
+            @Override
+            public void run() {
+                if (!closed) {
+                    closed = true;
+                    JdbcUtils.closeResultSet(rs);
+                    JdbcUtils.closeStatement(statement);
+                    DataSourceUtils.releaseConnection(connection, readDataSource);
+                    log.debug("流式查找结束");
+                }
+            }
+        };
+
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int rowNum = 0;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        closer.run();
+                        return false;
+                    }
+                    action.accept(rowMapper.mapRow(rs, rowNum++));
+                    return true;
+                } catch (SQLException e) {
+                    closer.run();
+                    throw jdbcTemplate.getExceptionTranslator().translate("execSelectSqlAsStream", sql, e);
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(closer);
+    }
+
+    //MySQL驱动只有在fetchSize为Integer.MIN_VALUE并且是只读、只向前的结果集时才会逐行读取
+    private PreparedStatement createStreamingStatement(Connection connection, String sql, Object[] args) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            ps.setFetchSize(streamingFetchSize);
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+        } catch (SQLException e) {
+            JdbcUtils.closeStatement(ps);
+            throw e;
+        }
+        return ps;
+    }
+
+    private class StreamingStatementCreator implements PreparedStatementCreator, SqlProvider {
+
+        private final String sql;
+        private final Object[] args;
+
+        StreamingStatementCreator(String sql, Object[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+            return createStreamingStatement(connection, sql, args);
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+
+    public void setStreamingFetchSize(int streamingFetchSize) {
+        this.streamingFetchSize = streamingFetchSize;
+    }
+
+    public int execUpdate(String sql, Object... args) {
+        return update(null, sql, args);
+    }
+
+    //流式查询（forEach、execAsStream）不经过QueryListener
+    public void setQueryListener(QueryListener queryListener) {
+        if (queryListener == null || queryListener == QueryListener.NOOP) {
+            this.queryMetrics = null;
+        } else {
+            this.queryMetrics = new QueryMetrics(ClassUtils.getUserClass(this).getSimpleName(), queryListener);
+        }
+    }
+
+    public QueryListener getQueryListener() {
+        QueryMetrics metrics = queryMetrics;
+        return metrics == null ? QueryListener.NOOP : metrics.getListener();
+    }
+
+    /**
+     * 执行时间超过threshold的语句记录到慢查询记录里面，explainSampleRate为0到1之间的采样比例，
+     * redactArgs为true时不记录参数值。流式查询（forEach、execAsStream）不记录
+     */
+    public void enableSlowQueryLog(long threshold, TimeUnit unit, double explainSampleRate, boolean redactArgs, int capacity) {
+        this.slowQueryLog = new SlowQueryLog(threshold, unit, explainSampleRate, redactArgs, capacity);
+    }
+
+    public void disableSlowQueryLog() {
+        this.slowQueryLog = null;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    //清空Select.countCached()缓存的结果
+    public void invalidateCountCache() {
+        countCache.invalidateAll();
+    }
+
+    //缓存命中的对象不是从row mapper读出来的，没有修改记录，和“修改查出来的对象再updateByPrimaryKey”只写修改过字段的用法冲突
+    public void enableEntityCache(int maxSize, long ttl, TimeUnit unit, boolean cacheMisses) {
+        if (this.getClass().getAnnotation(Table.class).trackChanges()) {
+            throw new IllegalStateException("@Table设置了trackChanges的dao不能使用实体缓存: " + tableName);
+        }
+        this.entityCache = new EntityCache<>(maxSize, ttl, unit, cacheMisses, pojoMapper::copy);
+    }
+
+    //使用TableProcessor生成的mapping时返回它，使用反射时返回null
+    public GeneratedMapping<T> getGeneratedMapping() {
+        return generatedMapping;
+    }
+
+    public EntityCache<T> getEntityCache() {
+        return entityCache;
+    }
+
+    //事务里面读到的可能是未提交的数据，所以事务里面不读也不写缓存，返回null
+    private EntityCache<T> usableEntityCache() {
+        return TransactionSynchronizationManager.isActualTransactionActive() ? null : entityCache;
+    }
+
+    //要放进缓存的数据从主库读，不读可能落后的从库
+    private List<JdbcTemplate> lookupTargets(Integer shard, boolean caching) {
+        return caching ? writeTargets(shard) : readTargets(shard);
+    }
+
+    //写操作马上清一次缓存；如果在事务里面，事务结束后再清一次，避免事务提交前被别的线程读回旧数据
+    private void invalidateEntityCache(Consumer<EntityCache<T>> invalidation) {
+        final EntityCache<T> cache = entityCache;
+        if (cache == null) {
+            return;
+        }
+        invalidation.accept(cache);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidation.accept(cache);
+                }
+            });
+        }
+    }
+
+    String requirePrimaryKeyName(String methodName) {
+        if (primaryKeyName == null || "".equals(primaryKeyName)) {
+            throw new IllegalStateException("需要使用" + methodName + "方法,必须在dao的@Table注解设置primaryKeyName的值");
+        }
+        return primaryKeyName;
+    }
+
+    Object getPrimaryKeyValue(T object) {
+        return pojoWriter.primaryKeyValue(object);
+    }
+
+    //在DataSource对应的线程池上执行；事务里面直接在当前线程执行，保证能看到事务里面的数据
+    <R> CompletableFuture<R> async(Supplier<R> action) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            try {
+                result.complete(action.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        final Long lastWriteTime = dataSourceRouter.lastWriteTime();
+        return CompletableFuture.supplyAsync(() -> dataSourceRouter.withLastWriteTime(lastWriteTime, action), asyncExecutor);
+    }
+
+    JdbcTemplate getReadJdbcTemplate() {
+        return dataSourceRouter.read();
+    }
+
+    //QueryBatch用：读操作只落在一个数据库上时返回它，要在多个分片上执行时返回null
+    JdbcTemplate readTemplateOf(Integer shard) {
+        List<JdbcTemplate> targets = readTargets(shard);
+        return targets.size() == 1 ? targets.get(0) : null;
+    }
+
+    //QueryBatch用：每个数据库只试一次能不能执行多语句，试的时候连接出错不记录结果
+    boolean supportsMultiQueries(JdbcTemplate template) {
+        return multiQuerySupport.computeIfAbsent(template, t -> t.execute((ConnectionCallback<Boolean>) QueryBatch::probeMultiQueries));
+    }
+
+    //QueryBatch用：合并执行的查询也按各自的SQL交给QueryListener和慢查询记录
+    void recordQuery(JdbcTemplate template, String sql, Object[] args, long connectNanos, long executeNanos, long fetchNanos, long mapNanos, int rows, Throwable error) {
+        QueryMetrics metrics = queryMetrics;
+        if (metrics != null) {
+            metrics.report(sql, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error);
+        }
+        SlowQueryLog slowLog = slowQueryLog;
+        if (slowLog != null && error == null) {
+            recordIfSlow(slowLog, template, sql, args, connectNanos + executeNanos + fetchNanos + mapNanos, rows);
+        }
+    }
+
+    boolean isSharded() {
+        return shardRouter != null;
+    }
+
+    Class<T> getDbPojoClass() {
+        return dbPojoClass;
+    }
+
+    String getShardKey() {
+        return shardRouter == null ? null : shardRouter.getShardKey();
+    }
+
+    Pattern getShardKeyTerm() {
+        return shardRouter == null ? null : shardRouter.getShardKeyTerm();
+    }
+
+    int shardOf(Object shardKeyValue) {
+        return shardRouter.shardOf(shardKeyValue);
+    }
+
+    Object getColumnValue(T object, String columnName) {
+        return pojoWriter.value(object, columnName);
+    }
+
+    //不分片时读操作走读写分离；分片时shard为null表示所有分片
+    private List<JdbcTemplate> readTargets(Integer shard) {
+        return shardRouter == null ? Collections.singletonList(getReadJdbcTemplate()) : shardRouter.targets(shard);
+    }
+
+    private List<JdbcTemplate> writeTargets(Integer shard) {
+        return shardRouter == null ? Collections.singletonList(jdbcTemplate) : shardRouter.targets(shard);
+    }
+
+    private <R> List<R> scatter(List<JdbcTemplate> targets, Function<JdbcTemplate, R> action) {
+        if (targets.size() == 1) {
+            return Collections.singletonList(action.apply(targets.get(0)));
+        }
+        return shardRouter.scatter(targets, action);
+    }
+
+    //分片字段就是主键时可以直接定位到一个分片
+    private boolean isShardedByPrimaryKey() {
+        return shardRouter != null && primaryKeyName.equals(shardRouter.getShardKey());
+    }
+
+    private Integer shardOfPrimaryKey(Object id) {
+        if (isShardedByPrimaryKey()) {
+            return shardRouter.shardOf(id);
+        }
+        return null;
+    }
+
+    private JdbcTemplate writeTemplateFor(Object object) {
+        if (shardRouter == null) {
+            return jdbcTemplate;
+        }
+        return shardRouter.shard(shardRouter.shardOf(pojoWriter.value(object, shardRouter.getShardKey())));
+    }
+
+    //多行insert一次取回所有自增主键：一条insert的自增值是连续的，驱动按LAST_INSERT_ID()和auto_increment_increment推算出每一行的主键
+    private int insertReturningKeys(JdbcTemplate template, String sql, Object[] args, int rows, LongConsumer generatedKeys) {
+        return executeOn(template, new InsertStatementCreator(sql, true), sql, () -> args, ps -> {
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+            int i = ps.executeUpdate();
+            int keyCount = 0;
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                while (keys.next()) {
+                    generatedKeys.accept(keys.getLong(1));
+                    keyCount++;
+                }
+            }
+            if (keyCount != rows) {
+                throw new DataRetrievalFailureException("批量插入了" + rows + "条记录，但是数据库返回了" + keyCount + "个自增主键: " + tableName);
+            }
+            return i;
+        }, i -> i);
+    }
+
+    //单行insert：SQL在初始化时拼好，参数用PojoWriter预先选好的setXxx直接绑定，返回自增主键（不需要时返回0）
+    private long insertOn(JdbcTemplate template, InsertStatementCreator creator, Object object) {
+        return executeOn(template, creator, creator.sql, () -> pojoWriter.values(object), ps -> {
+            pojoWriter.bind(ps, object);
+            ps.executeUpdate();
+            if (!creator.returnGeneratedKey) {
+                return 0L;
+            }
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new DataRetrievalFailureException("插入成功但是数据库没有返回自增主键: " + tableName);
+                }
+                return keys.getLong(1);
+            }
+        }, id -> 1);
+    }
+
+    private static class InsertStatementCreator implements PreparedStatementCreator, SqlProvider {
+
+        private final String sql;
+        private final boolean returnGeneratedKey;
+
+        InsertStatementCreator(String sql, boolean returnGeneratedKey) {
+            this.sql = sql;
+            this.returnGeneratedKey = returnGeneratedKey;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+            return returnGeneratedKey ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : connection.prepareStatement(sql);
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+
+    private Map<JdbcTemplate, List<T>> groupByShard(Collection<? extends T> objects) {
+        Map<JdbcTemplate, List<T>> result = new LinkedHashMap<>();
+        if (shardRouter == null) {
+            result.put(jdbcTemplate, new ArrayList<>(objects));
+            return result;
+        }
+        for (T object : objects) {
+            int shard = shardRouter.shardOf(pojoWriter.value(object, shardRouter.getShardKey()));
+            result.computeIfAbsent(shardRouter.shard(shard), template -> new ArrayList<>()).add(object);
+        }
+        return result;
+    }
+
+    private static <R> List<R> flatten(List<List<R>> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        List<R> result = new ArrayList<>();
+        for (List<R> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    private static int sum(List<Integer> parts) {
+        int result = 0;
+        for (Integer part : parts) {
+            result += part;
+        }
         return result;
     }
 
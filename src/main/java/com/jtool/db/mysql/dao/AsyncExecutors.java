@@ -0,0 +1,76 @@
+package com.jtool.db.mysql.dao;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步查询的线程池，每个DataSource一个，同一个DataSource的dao共用，所以这些dao的asyncThreads必须一样。
+ * 线程数限制了同时占用的连接数，队列满了之后由调用线程自己执行。
+ * 按使用的dao计数，最后一个dao销毁时关闭线程池，Spring容器关闭或者重启以后不会留下线程
+ */
+final class AsyncExecutors {
+
+    private static final int QUEUE_SIZE = 1024;
+
+    private static final ConcurrentMap<DataSource, SharedExecutor> EXECUTORS = new ConcurrentHashMap<>();
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private static final class SharedExecutor {
+        private final ThreadPoolExecutor executor;
+        private int users;
+
+        private SharedExecutor(ThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+    }
+
+    private AsyncExecutors() {
+    }
+
+    //每次调用都要在dao销毁时调用一次release
+    static ExecutorService forDataSource(DataSource dataSource, int threads) {
+        if (threads <= 0) {
+            throw new IllegalStateException("@DataSource注解的asyncThreads应该大于0");
+        }
+        SharedExecutor shared = EXECUTORS.compute(dataSource, (key, existing) -> {
+            SharedExecutor result = existing == null ? new SharedExecutor(newExecutor(threads)) : existing;
+            if (result.executor.getMaximumPoolSize() != threads) {
+                throw new IllegalStateException("同一个DataSource的dao的asyncThreads不一样: " + result.executor.getMaximumPoolSize() + " 和 " + threads);
+            }
+            result.users++;
+            return result;
+        });
+        return shared.executor;
+    }
+
+    static void release(DataSource dataSource) {
+        EXECUTORS.computeIfPresent(dataSource, (key, shared) -> {
+            if (--shared.users > 0) {
+                return shared;
+            }
+            shared.executor.shutdown();
+            return null;
+        });
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads) {
+        final String prefix = "jtool-mysql-async-" + POOL_COUNT.incrementAndGet() + "-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,82 @@
+package com.jtool.db.mysql.dao;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 记录row mapper读出来的对象当时的字段值，updateByPrimaryKey时和当前值比较，只写修改过的字段。
+ * 按对象本身（不是equals）弱引用保存，不需要代理类，对象被回收以后快照也跟着清掉
+ */
+class ChangeTracker {
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final ConcurrentMap<IdentityKey, Object[]> snapshots = new ConcurrentHashMap<>();
+
+    //Date和byte[]按值复制一份，调用方原地修改它们时快照不会跟着变
+    void track(Object object, Object[] values) {
+        expunge();
+        Object[] snapshot = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            snapshot[i] = PojoMapper.copyValue(values[i]);
+        }
+        snapshots.put(new IdentityKey(object, queue), snapshot);
+    }
+
+    /**
+     * 和读出来时相比修改过的列；没有快照（不是查出来的对象）时所有列都算修改过
+     */
+    BitSet changed(Object object, Object[] values) {
+        Object[] snapshot = snapshots.get(new IdentityKey(object, null));
+        BitSet result = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (snapshot == null || !Objects.deepEquals(snapshot[i], values[i])) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    //去掉快照以后这个对象所有列都算修改过
+    void forget(Object object) {
+        snapshots.remove(new IdentityKey(object, null));
+    }
+
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            snapshots.remove(reference);
+        }
+    }
+
+    private static final class IdentityKey extends WeakReference<Object> {
+
+        private final int hash;
+
+        IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof IdentityKey)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((IdentityKey) other).get();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.jtool.db.mysql.dao;
+
+/**
+ * 批量写入时一段语句的执行结果：这一段包含的记录条数和数据库返回的影响记录条数。
+ * upsert时MySQL对插入的记录返回1，对修改了的记录返回2
+ */
+public final class ChunkResult {
+
+    private final int rows;
+    private final int affectedRows;
+
+    ChunkResult(int rows, int affectedRows) {
+        this.rows = rows;
+        this.affectedRows = affectedRows;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getAffectedRows() {
+        return affectedRows;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkResult{" +
+                "rows=" + rows +
+                ", affectedRows=" + affectedRows +
+                '}';
+    }
+}
@@ -0,0 +1,59 @@
+package com.jtool.db.mysql.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Select.countCached()的结果缓存，按SQL和参数缓存，读取时按调用方给的有效期判断是否过期。
+ * 只靠有效期失效，写入不会让它失效；超过容量时淘汰最久没有用到的
+ */
+class CountCache {
+
+    private static final int MAX_SIZE = 1000;
+
+    private final LinkedHashMap<Object, CountEntry> entries = new LinkedHashMap<Object, CountEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, CountEntry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private static final class CountEntry {
+        private final int count;
+        private final long createdAt;
+
+        private CountEntry(int count, long createdAt) {
+            this.count = count;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * 没有缓存或者已经超过ttlNanos时返回null
+     */
+    Integer get(Object key, long ttlNanos) {
+        CountEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || System.nanoTime() - entry.createdAt > ttlNanos) {
+            return null;
+        }
+        return entry.count;
+    }
+
+    void put(Object key, int count) {
+        CountEntry entry = new CountEntry(count, System.nanoTime());
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
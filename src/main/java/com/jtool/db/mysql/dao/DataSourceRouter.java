@@ -0,0 +1,94 @@
+package com.jtool.db.mysql.dao;
+
+import com.jtool.db.mysql.annotation.LoadBalance;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 读写分离：写操作和事务里面的读操作走主库，其他读操作按负载均衡策略分到从库。
+ * 设置了readYourWritesMillis时，同一个线程写完之后的这段时间内读操作也走主库
+ */
+class DataSourceRouter {
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate[] replicas;
+    private final LoadBalance loadBalance;
+    private final long readYourWritesMillis;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private final ThreadLocal<Long> lastWriteTime = new ThreadLocal<>();
+
+    DataSourceRouter(JdbcTemplate primary, List<DataSource> replicaDataSources, LoadBalance loadBalance, long readYourWritesMillis) {
+        this.primary = primary;
+        this.replicas = new JdbcTemplate[replicaDataSources.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = new JdbcTemplate(replicaDataSources.get(i));
+        }
+        this.loadBalance = loadBalance;
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    JdbcTemplate primary() {
+        return primary;
+    }
+
+    JdbcTemplate read() {
+        if (replicas.length == 0 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return primary;
+        }
+        if (readYourWritesMillis > 0) {
+            Long last = lastWriteTime.get();
+            if (last != null) {
+                if (System.currentTimeMillis() - last < readYourWritesMillis) {
+                    return primary;
+                }
+                lastWriteTime.remove();
+            }
+        }
+        if (replicas.length == 1) {
+            return replicas[0];
+        }
+        switch (loadBalance) {
+            case RANDOM:
+                return replicas[ThreadLocalRandom.current().nextInt(replicas.length)];
+            case ROUND_ROBIN:
+            default:
+                return replicas[(roundRobin.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
+        }
+    }
+
+    Long lastWriteTime() {
+        return lastWriteTime.get();
+    }
+
+    //在其他线程上执行时沿用调用线程的写入时间，保证异步的读操作也能读到自己刚写入的数据
+    <R> R withLastWriteTime(Long time, Supplier<R> action) {
+        Long previous = lastWriteTime.get();
+        if (time == null) {
+            lastWriteTime.remove();
+        } else {
+            lastWriteTime.set(time);
+        }
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                lastWriteTime.remove();
+            } else {
+                lastWriteTime.set(previous);
+            }
+        }
+    }
+
+    void markWrite() {
+        if (readYourWritesMillis > 0 && replicas.length > 0) {
+            lastWriteTime.set(System.currentTimeMillis());
+        }
+    }
+}
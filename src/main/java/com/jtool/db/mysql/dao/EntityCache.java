@@ -0,0 +1,152 @@
+package com.jtool.db.mysql.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * 按主键缓存实体，LRU淘汰加过期时间，可以选择缓存查不到的主键。
+ * 存进去和取出来的都是复制的对象，调用方修改拿到的对象不会影响缓存。
+ * 每次清缓存都会增加generation，查数据库之前记下generation，放回缓存时generation变了就不放，
+ * 避免查询期间别的线程修改并清掉缓存以后，又把查到的旧数据放回去
+ */
+public class EntityCache<T> {
+
+    private static final Object MISS = new Object();
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final boolean cacheMisses;
+    private final UnaryOperator<T> copier;
+
+    private final LinkedHashMap<Object, CacheEntry> entries;
+    private long generation;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    private static final class CacheEntry {
+        private final Object value;
+        private final long expireAt;
+
+        private CacheEntry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    EntityCache(int maxSize, long ttl, TimeUnit unit, boolean cacheMisses, UnaryOperator<T> copier) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("缓存的大小应该大于0");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("缓存的过期时间应该大于0");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.cacheMisses = cacheMisses;
+        this.copier = copier;
+        this.entries = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+                return size() > EntityCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 返回null表示缓存里面没有这个主键；缓存了查不到的主键时返回Optional.empty()
+     */
+    @SuppressWarnings("unchecked")
+    Optional<T> get(Object key) {
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expireAt > 0) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return entry.value == MISS ? Optional.empty() : Optional.of(copier.apply((T) entry.value));
+    }
+
+    //查数据库之前调用，放回缓存时传给put和putMiss
+    long generation() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    void put(Object key, T value, long generation) {
+        CacheEntry entry = new CacheEntry(copier.apply(value), System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            if (this.generation == generation) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    void putMiss(Object key, long generation) {
+        if (cacheMisses) {
+            CacheEntry entry = new CacheEntry(MISS, System.nanoTime() + ttlNanos);
+            synchronized (entries) {
+                if (this.generation == generation) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+    }
+
+    void invalidate(Object key) {
+        synchronized (entries) {
+            generation++;
+            entries.remove(key);
+        }
+    }
+
+    void invalidateMisses() {
+        if (cacheMisses) {
+            synchronized (entries) {
+                generation++;
+                Iterator<CacheEntry> iterator = entries.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().value == MISS) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+}
@@ -0,0 +1,46 @@
+package com.jtool.db.mysql.dao;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * TableProcessor在编译时为每个@Table的dao生成的实现（类名为dao类名加_JtoolMapping），
+ * dao初始化时用它代替反射取得pojo类型、构造函数、setter和getter。不要自己实现这个接口
+ */
+public interface GeneratedMapping<T> {
+
+    Class<?> daoClass();
+
+    Class<T> pojoClass();
+
+    String tableName();
+
+    String primaryKeyName();
+
+    T newInstance();
+
+    /**
+     * pojo里面没有这个字段时返回null
+     */
+    Class<?> propertyType(String property);
+
+    /**
+     * pojo里面没有这个字段的setter时返回null
+     */
+    BiConsumer<Object, Object> setter(String property);
+
+    /**
+     * pojo里面没有这个字段的getter时返回null
+     */
+    Function<Object, Object> getter(String property);
+
+    /**
+     * 没有设置primaryKeyName时返回null
+     */
+    String selectByPrimaryKeySql();
+
+    /**
+     * 没有设置primaryKeyName时返回null
+     */
+    String deleteByPrimaryKeySql();
+}
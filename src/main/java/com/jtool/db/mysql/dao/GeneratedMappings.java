@@ -0,0 +1,59 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.util.ClassUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * 查找TableProcessor生成的GeneratedMapping：先查META-INF/services里面登记的，再按类名约定加载
+ */
+final class GeneratedMappings {
+
+    static final String SUFFIX = "_JtoolMapping";
+
+    private static volatile Map<Class<?>, GeneratedMapping<?>> registered;
+
+    private GeneratedMappings() {
+    }
+
+    static GeneratedMapping<?> find(Class<?> daoClass) {
+        GeneratedMapping<?> mapping = registered(daoClass.getClassLoader()).get(daoClass);
+        if (mapping != null) {
+            return mapping;
+        }
+        String packageName = ClassUtils.getPackageName(daoClass);
+        String simpleName = packageName.isEmpty() ? daoClass.getName() : daoClass.getName().substring(packageName.length() + 1);
+        String mappingName = (packageName.isEmpty() ? "" : packageName + ".") + simpleName.replace('$', '_') + SUFFIX;
+        try {
+            Class<?> mappingClass = ClassUtils.forName(mappingName, daoClass.getClassLoader());
+            if (GeneratedMapping.class.isAssignableFrom(mappingClass)) {
+                mapping = (GeneratedMapping<?>) mappingClass.newInstance();
+                return mapping.daoClass() == daoClass ? mapping : null;
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            //没有生成代码，使用反射
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法实例化" + mappingName, e);
+        }
+        return null;
+    }
+
+    private static Map<Class<?>, GeneratedMapping<?>> registered(ClassLoader classLoader) {
+        Map<Class<?>, GeneratedMapping<?>> result = registered;
+        if (result == null) {
+            result = new HashMap<>();
+            try {
+                for (GeneratedMapping<?> mapping : ServiceLoader.load(GeneratedMapping.class, classLoader)) {
+                    result.put(mapping.daoClass(), mapping);
+                }
+            } catch (ServiceConfigurationError e) {
+                //登记的类有问题时退回按类名加载
+            }
+            registered = result;
+        }
+        return result;
+    }
+}
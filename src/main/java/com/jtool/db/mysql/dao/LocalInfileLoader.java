@@ -0,0 +1,267 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.util.ClassUtils;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * LOAD DATA LOCAL INFILE用到的东西：通过反射调用Connector/J语句上的setLocalInfileInputStream，
+ * 让驱动直接读边遍历对象边生成的TSV数据流，不用写临时文件，也不需要编译期依赖驱动。
+ * 驱动的5.1和8.x版本都支持
+ */
+final class LocalInfileLoader {
+
+    private static final String[] STATEMENT_CLASS_NAMES = {"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement"};
+    private static final List<Method> STREAM_SETTERS = new ArrayList<>();
+    //1148：服务器关掉了local_infile；3948：8.0服务器或者客户端不允许
+    private static final List<Integer> DISABLED_ERROR_CODES = Arrays.asList(1148, 3948);
+
+    static {
+        for (String className : STATEMENT_CLASS_NAMES) {
+            try {
+                Class<?> statementClass = ClassUtils.forName(className, LocalInfileLoader.class.getClassLoader());
+                STREAM_SETTERS.add(statementClass.getMethod("setLocalInfileInputStream", InputStream.class));
+            } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+                //classpath里面没有这个版本的驱动
+            }
+        }
+    }
+
+    private LocalInfileLoader() {
+    }
+
+    /**
+     * 驱动是Connector/J、连接参数允许并且服务器打开了local_infile时返回true；H2这类替身数据库返回false
+     */
+    static boolean isSupported(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            if (streamSetter(statement) == null || !clientAllows(connection)) {
+                return false;
+            }
+            try (ResultSet rs = statement.executeQuery("select @@local_infile")) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 客户端或者服务器不允许LOAD DATA LOCAL INFILE时驱动和服务器报的错
+     */
+    static boolean isDisabledError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String message = String.valueOf(sqlException.getMessage());
+                if (DISABLED_ERROR_CODES.contains(sqlException.getErrorCode())
+                        || message.contains("Loading local data is disabled") || message.contains("allowLoadLocalInfile")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //连接参数allowLoadLocalInfile：5.1默认打开，8.x默认关闭。读不到时当作打开，执行时报错再退回批量插入
+    private static boolean clientAllows(Connection connection) {
+        ClassLoader classLoader = LocalInfileLoader.class.getClassLoader();
+        try {
+            if (ClassUtils.isPresent("com.mysql.cj.jdbc.JdbcConnection", classLoader)) {
+                Class<?> connectionClass = ClassUtils.forName("com.mysql.cj.jdbc.JdbcConnection", classLoader);
+                if (connection.isWrapperFor(connectionClass)) {
+                    Object propertySet = connectionClass.getMethod("getPropertySet").invoke(connection.unwrap(connectionClass));
+                    Object property = ClassUtils.forName("com.mysql.cj.conf.PropertySet", classLoader)
+                            .getMethod("getBooleanProperty", String.class).invoke(propertySet, "allowLoadLocalInfile");
+                    return Boolean.TRUE.equals(ClassUtils.forName("com.mysql.cj.conf.RuntimeProperty", classLoader).getMethod("getValue").invoke(property));
+                }
+            }
+            if (ClassUtils.isPresent("com.mysql.jdbc.ConnectionProperties", classLoader)) {
+                Class<?> propertiesClass = ClassUtils.forName("com.mysql.jdbc.ConnectionProperties", classLoader);
+                if (connection.isWrapperFor(propertiesClass)) {
+                    return Boolean.TRUE.equals(propertiesClass.getMethod("getAllowLoadLocalInfile").invoke(connection.unwrap(propertiesClass)));
+                }
+            }
+        } catch (ReflectiveOperationException | SQLException | LinkageError e) {
+            //驱动版本不一样，属性读不到
+        }
+        return true;
+    }
+
+    static void setInputStream(Statement statement, InputStream in) throws SQLException {
+        Object[] setter = streamSetter(statement);
+        if (setter == null) {
+            throw new SQLException("数据库驱动不支持LOAD DATA LOCAL INFILE: " + statement.getClass().getName());
+        }
+        try {
+            ((Method) setter[0]).invoke(setter[1], in);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+        }
+    }
+
+    //返回{方法, 被连接池包装过时解开以后的语句}
+    private static Object[] streamSetter(Statement statement) throws SQLException {
+        for (Method method : STREAM_SETTERS) {
+            Class<?> statementClass = method.getDeclaringClass();
+            if (statementClass.isInstance(statement)) {
+                return new Object[]{method, statement};
+            }
+            if (statement.isWrapperFor(statementClass)) {
+                return new Object[]{method, statement.unwrap(statementClass)};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按LOAD DATA默认格式（tab分隔、反斜杠转义、\n换行、\N表示NULL）生成的UTF-8数据流，
+     * 驱动读的时候才从Iterator取下一批对象，内存里只有一个缓冲区
+     */
+    static final class TsvInputStream extends InputStream {
+
+        private static final int FILL_SIZE = 64 * 1024;
+
+        private final Iterator<?> objects;
+        private final Function<Object, Object[]> rowValues;
+        private byte[] buffer = new byte[FILL_SIZE * 2];
+        private int position;
+        private int limit;
+        private long rows;
+
+        TsvInputStream(Iterator<?> objects, Function<Object, Object[]> rowValues) {
+            this.objects = objects;
+            this.rowValues = rowValues;
+        }
+
+        long getRows() {
+            return rows;
+        }
+
+        @Override
+        public int read() {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean fill() {
+            position = 0;
+            limit = 0;
+            while (limit < FILL_SIZE && objects.hasNext()) {
+                Object[] values = rowValues.apply(objects.next());
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        write((byte) '\t');
+                    }
+                    writeValue(values[i]);
+                }
+                write((byte) '\n');
+                rows++;
+            }
+            return limit > 0;
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                write((byte) '\\');
+                write((byte) 'N');
+            } else if (value instanceof Boolean) {
+                write((byte) ((Boolean) value ? '1' : '0'));
+            } else if (value instanceof byte[]) {
+                writeEscaped((byte[]) value);
+            } else {
+                writeEscaped(text(value).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private static String text(Object value) {
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).toPlainString();
+            }
+            if (value instanceof java.sql.Date || value instanceof java.sql.Time || value instanceof Timestamp) {
+                return value.toString();
+            }
+            if (value instanceof Date) {
+                return new Timestamp(((Date) value).getTime()).toString();
+            }
+            if (value instanceof LocalDateTime) {
+                return value.toString().replace('T', ' ');
+            }
+            if (value instanceof Enum) {
+                return ((Enum<?>) value).name();
+            }
+            return value.toString();
+        }
+
+        //UTF-8多字节字符的每个字节都不小于0x80，可以逐字节转义
+        private void writeEscaped(byte[] bytes) {
+            for (byte b : bytes) {
+                switch (b) {
+                    case '\\':
+                        write((byte) '\\');
+                        write((byte) '\\');
+                        break;
+                    case '\t':
+                        write((byte) '\\');
+                        write((byte) 't');
+                        break;
+                    case '\n':
+                        write((byte) '\\');
+                        write((byte) 'n');
+                        break;
+                    case '\r':
+                        write((byte) '\\');
+                        write((byte) 'r');
+                        break;
+                    case 0:
+                        write((byte) '\\');
+                        write((byte) '0');
+                        break;
+                    default:
+                        write(b);
+                }
+            }
+        }
+
+        private void write(byte b) {
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[limit++] = b;
+        }
+    }
+}
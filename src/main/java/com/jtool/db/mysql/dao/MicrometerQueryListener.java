@@ -0,0 +1,91 @@
+package com.jtool.db.mysql.dao;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把QueryListener的数据记录到Micrometer：jtool.mysql.query按phase分别记录各阶段的时间，
+ * jtool.mysql.query.rows记录行数，jtool.mysql.query.errors记录出错次数，标签为dao和sql。
+ * 不同的sql标签最多maxSqlShapes个（所有dao一起算），超过以后新的SQL都记在sql=other下面，
+ * 避免execSelectSql拼出来的SQL让指标无限增加。需要自己引入micrometer-core依赖
+ */
+public class MicrometerQueryListener implements QueryListener {
+
+    public static final int DEFAULT_MAX_SQL_SHAPES = 500;
+    static final String OTHER_SQL = "other";
+
+    private final MeterRegistry registry;
+    private final int maxSqlShapes;
+    private final AtomicInteger sqlShapes = new AtomicInteger();
+    private final ConcurrentMap<String, ConcurrentMap<String, Meters>> metersMap = new ConcurrentHashMap<>();
+
+    public MicrometerQueryListener(MeterRegistry registry) {
+        this(registry, DEFAULT_MAX_SQL_SHAPES);
+    }
+
+    public MicrometerQueryListener(MeterRegistry registry, int maxSqlShapes) {
+        if (maxSqlShapes < 0) {
+            throw new IllegalArgumentException("maxSqlShapes不能小于0");
+        }
+        this.registry = registry;
+        this.maxSqlShapes = maxSqlShapes;
+    }
+
+    @Override
+    public void onQuery(String dao, String sqlShape, long connectNanos, long executeNanos, long fetchNanos, long mapNanos, int rows, Throwable error) {
+        ConcurrentMap<String, Meters> daoMeters = metersMap.get(dao);
+        if (daoMeters == null) {
+            daoMeters = metersMap.computeIfAbsent(dao, key -> new ConcurrentHashMap<>());
+        }
+        Meters meters = daoMeters.get(sqlShape);
+        if (meters == null) {
+            meters = daoMeters.computeIfAbsent(sqlShape, key -> {
+                if (sqlShapes.incrementAndGet() > maxSqlShapes) {
+                    sqlShapes.decrementAndGet();
+                    return null;
+                }
+                return new Meters(dao, sqlShape);
+            });
+        }
+        if (meters == null) {
+            meters = daoMeters.computeIfAbsent(OTHER_SQL, key -> new Meters(dao, OTHER_SQL));
+        }
+        meters.connect.record(connectNanos, TimeUnit.NANOSECONDS);
+        meters.execute.record(executeNanos, TimeUnit.NANOSECONDS);
+        meters.fetch.record(fetchNanos, TimeUnit.NANOSECONDS);
+        meters.map.record(mapNanos, TimeUnit.NANOSECONDS);
+        meters.rows.record(rows);
+        if (error != null) {
+            meters.errors.increment();
+        }
+    }
+
+    private final class Meters {
+        private final Timer connect;
+        private final Timer execute;
+        private final Timer fetch;
+        private final Timer map;
+        private final DistributionSummary rows;
+        private final Counter errors;
+
+        private Meters(String dao, String sqlShape) {
+            connect = timer(dao, sqlShape, "connect");
+            execute = timer(dao, sqlShape, "execute");
+            fetch = timer(dao, sqlShape, "fetch");
+            map = timer(dao, sqlShape, "map");
+            rows = DistributionSummary.builder("jtool.mysql.query.rows").tags("dao", dao, "sql", sqlShape).register(registry);
+            errors = Counter.builder("jtool.mysql.query.errors").tags("dao", dao, "sql", sqlShape).register(registry);
+        }
+
+        private Timer timer(String dao, String sqlShape, String phase) {
+            return Timer.builder("jtool.mysql.query").tags("dao", dao, "sql", sqlShape, "phase", phase).register(registry);
+        }
+    }
+}
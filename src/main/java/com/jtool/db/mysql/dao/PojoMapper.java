@@ -0,0 +1,198 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 每个DAO初始化时生成一次：列的读取方式和setter都在这里预先编译好，
+ * 结果集的列顺序按形状缓存，逐行映射时不再有反射、类型名字符串判断和metadata调用
+ */
+class PojoMapper<T> {
+
+    @FunctionalInterface
+    interface ColumnReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface ColumnBinder {
+        void bind(Object object, ResultSet rs, int index) throws SQLException;
+    }
+
+    private final Class<T> pojoClass;
+    private final Supplier<T> constructor;
+    private final Map<String, ColumnBinder> binderMap = new HashMap<>();
+    private final Function<Object, Object>[] getters;
+    private final BiConsumer<Object, Object>[] setters;
+    private final ConcurrentMap<String, ColumnBinder[]> planCache = new ConcurrentHashMap<>();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PojoMapper(Class<T> pojoClass, Supplier<T> constructor, Map<String, PojoProperty> properties) {
+        this.pojoClass = pojoClass;
+        this.constructor = constructor;
+        this.getters = new Function[properties.size()];
+        this.setters = new BiConsumer[properties.size()];
+        int i = 0;
+        for (Map.Entry<String, PojoProperty> entry : properties.entrySet()) {
+            getters[i] = entry.getValue().getter;
+            setters[i++] = entry.getValue().setter;
+            String columnName = entry.getKey();
+            ColumnReader reader = readerFor(columnName, entry.getValue().type);
+            BiConsumer<Object, Object> setter = entry.getValue().setter;
+            binderMap.put(columnName, (object, rs, index) -> {
+                Object value = reader.read(rs, index);
+                if (value != null) {
+                    setter.accept(object, value);
+                }
+            });
+        }
+    }
+
+    RowMapper<T> newRowMapper() {
+        return newRowMapper(0);
+    }
+
+    //结果集最后ignoredColumns列不映射，分片合并排序时额外查出来的排序字段用
+    RowMapper<T> newRowMapper(int ignoredColumns) {
+        return new RowMapper<T>() {
+
+            private ColumnBinder[] plan;
+
+            @Override
+            public T mapRow(ResultSet rs, int i) throws SQLException {
+                ColumnBinder[] binders = plan;
+                if (binders == null) {
+                    binders = plan = resolvePlan(rs.getMetaData(), ignoredColumns);
+                }
+                T object = constructor.get();
+                for (int j = 0; j < binders.length; j++) {
+                    binders[j].bind(object, rs, j + 1);
+                }
+                return object;
+            }
+        };
+    }
+
+    //复制所有和表字段对应的属性，实体缓存用；Date和byte[]这类可变的值也复制一份
+    T copy(T source) {
+        T object = constructor.get();
+        for (int i = 0; i < getters.length; i++) {
+            Object value = getters[i].apply(source);
+            if (value != null) {
+                setters[i].accept(object, copyValue(value));
+            }
+        }
+        return object;
+    }
+
+    static Object copyValue(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
+    }
+
+    private ColumnBinder[] resolvePlan(ResultSetMetaData resultSetMetaData, int ignoredColumns) throws SQLException {
+        int columnCount = resultSetMetaData.getColumnCount() - ignoredColumns;
+        String[] columnNames = new String[columnCount];
+        for (int j = 1; j <= columnCount; j++) {
+            columnNames[j - 1] = resultSetMetaData.getColumnName(j);
+        }
+        String shape = String.join(",", columnNames);
+
+        ColumnBinder[] plan = planCache.get(shape);
+        if (plan == null) {
+            plan = new ColumnBinder[columnCount];
+            for (int j = 0; j < columnCount; j++) {
+                ColumnBinder binder = findBinder(columnNames[j]);
+                if (binder == null) {
+                    throw new IllegalStateException(pojoClass.getName() + "里面找不到对应数据库的字段: " + columnNames[j]);
+                }
+                plan[j] = binder;
+            }
+            planCache.putIfAbsent(shape, plan);
+        }
+        return plan;
+    }
+
+    private ColumnBinder findBinder(String columnName) {
+        ColumnBinder binder = binderMap.get(columnName);
+        if (binder == null) {
+            for (Map.Entry<String, ColumnBinder> entry : binderMap.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(columnName)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return binder;
+    }
+
+    private ColumnReader readerFor(String columnName, Class<?> type) {
+        if (type == Byte.class) {
+            return (rs, index) -> {
+                byte b = rs.getByte(index);
+                return rs.wasNull() ? null : b;
+            };
+        }
+        if (type == Short.class) {
+            return (rs, index) -> {
+                short s = rs.getShort(index);
+                return rs.wasNull() ? null : s;
+            };
+        }
+        if (type == Integer.class) {
+            return (rs, index) -> {
+                int anInt = rs.getInt(index);
+                return rs.wasNull() ? null : anInt;
+            };
+        }
+        if (type == Long.class) {
+            return (rs, index) -> {
+                long l = rs.getLong(index);
+                return rs.wasNull() ? null : l;
+            };
+        }
+        if (type == Float.class) {
+            return (rs, index) -> {
+                float f = rs.getFloat(index);
+                return rs.wasNull() ? null : f;
+            };
+        }
+        if (type == Double.class) {
+            return (rs, index) -> {
+                double d = rs.getDouble(index);
+                return rs.wasNull() ? null : d;
+            };
+        }
+        if (type == String.class) {
+            return ResultSet::getString;
+        }
+        if (type == Timestamp.class) {
+            return ResultSet::getTimestamp;
+        }
+        if (type == Date.class) {
+            return (rs, index) -> {
+                Timestamp t = rs.getTimestamp(index);
+                return t == null ? null : new Date(t.getTime());
+            };
+        }
+        return (rs, index) -> {
+            throw new IllegalStateException(pojoClass.getName() + "不支持的字段类型: " + columnName + " " + type.getName());
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.jtool.db.mysql.dao;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * pojo里面和表字段对应的一个属性：类型和编译好的setter、getter。
+ * 有TableProcessor生成的代码时直接使用生成的lambda，否则用反射找到方法再编译
+ */
+final class PojoProperty {
+
+    final Class<?> type;
+    final BiConsumer<Object, Object> setter;
+    final Function<Object, Object> getter;
+
+    private PojoProperty(Class<?> type, BiConsumer<Object, Object> setter, Function<Object, Object> getter) {
+        this.type = type;
+        this.setter = setter;
+        this.getter = getter;
+    }
+
+    static PojoProperty generated(GeneratedMapping<?> mapping, String columnName) {
+        Class<?> type = mapping.propertyType(columnName);
+        BiConsumer<Object, Object> setter = mapping.setter(columnName);
+        if (type == null || setter == null) {
+            throw new IllegalStateException(mapping.pojoClass().getName() + "里面找不到对应数据库的字段: " + columnName);
+        }
+        Function<Object, Object> getter = mapping.getter(columnName);
+        return new PojoProperty(type, setter, getter == null ? missingGetter(mapping.pojoClass(), columnName) : getter);
+    }
+
+    static PojoProperty reflect(Class<?> pojoClass, String columnName) throws NoSuchFieldException, NoSuchMethodException {
+        final Field field = pojoClass.getDeclaredField(columnName);
+        final String suffix = columnName.substring(0, 1).toUpperCase() + columnName.substring(1);
+        final Method setter = pojoClass.getDeclaredMethod("set" + suffix, field.getType());
+        return new PojoProperty(field.getType(), ReflectionUtil.compileSetter(setter), compileGetter(pojoClass, columnName, suffix, field.getType()));
+    }
+
+    //getter找不到时不影响读取，写入时才报错
+    private static Function<Object, Object> compileGetter(Class<?> pojoClass, String columnName, String suffix, Class<?> type) {
+        for (String prefix : new String[]{"get", "is"}) {
+            try {
+                Method method = pojoClass.getMethod(prefix + suffix);
+                if (method.getReturnType() == type) {
+                    return ReflectionUtil.compileGetter(method);
+                }
+            } catch (NoSuchMethodException e) {
+                //继续尝试下一个前缀
+            }
+        }
+        return missingGetter(pojoClass, columnName);
+    }
+
+    private static Function<Object, Object> missingGetter(Class<?> pojoClass, String columnName) {
+        return object -> {
+            throw new IllegalStateException(pojoClass.getName() + "里面找不到字段的getter: " + columnName);
+        };
+    }
+}
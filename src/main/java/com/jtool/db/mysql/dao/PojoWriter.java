@@ -0,0 +1,268 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 每个DAO初始化时生成一次：按表字段顺序预先编译好getter和按字段类型选好的setXxx/setNull，
+ * 写入数据时直接按列取值绑定到PreparedStatement
+ */
+class PojoWriter<T> {
+
+    @FunctionalInterface
+    interface ParameterBinder {
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException;
+    }
+
+    private final Class<T> pojoClass;
+    private final String[] columns;
+    private final Function<Object, Object>[] getters;
+    private final ParameterBinder[] binders;
+    private final Function<Object, Object> primaryKeyGetter;
+    private final ParameterBinder primaryKeyBinder;
+    private final String[] allColumns;
+    private final Function<Object, Object>[] allGetters;
+    private final String[] updateColumns;
+    private final Function<Object, Object>[] updateGetters;
+    private final ParameterBinder[] updateBinders;
+    private final Map<String, Function<Object, Object>> getterMap = new HashMap<>();
+
+    //includePrimaryKey为true时主键由应用分配（按主键分片），写入的列包含主键；
+    //update时不修改主键和分片字段
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PojoWriter(Class<T> pojoClass, Map<String, PojoProperty> properties, String primaryKeyName, boolean includePrimaryKey, String shardKey) {
+        List<String> columnList = new ArrayList<>();
+        List<Function<Object, Object>> getterList = new ArrayList<>();
+        List<ParameterBinder> binderList = new ArrayList<>();
+        List<String> allColumnList = new ArrayList<>();
+        List<Function<Object, Object>> allGetterList = new ArrayList<>();
+        List<String> updateColumnList = new ArrayList<>();
+        List<Function<Object, Object>> updateGetterList = new ArrayList<>();
+        List<ParameterBinder> updateBinderList = new ArrayList<>();
+        Function<Object, Object> primaryKeyGetter = null;
+        ParameterBinder primaryKeyBinder = null;
+        for (Map.Entry<String, PojoProperty> entry : properties.entrySet()) {
+            String columnName = entry.getKey();
+            Function<Object, Object> getter = entry.getValue().getter;
+            ParameterBinder binder = binderFor(entry.getValue().type);
+            getterMap.put(columnName, getter);
+            allColumnList.add(columnName);
+            allGetterList.add(getter);
+            if (columnName.equals(primaryKeyName)) {
+                primaryKeyGetter = getter;
+                primaryKeyBinder = binder;
+            }
+            if (includePrimaryKey || !columnName.equals(primaryKeyName)) {
+                columnList.add(columnName);
+                getterList.add(getter);
+                binderList.add(binder);
+            }
+            if (!columnName.equals(primaryKeyName) && !columnName.equals(shardKey)) {
+                updateColumnList.add(columnName);
+                updateGetterList.add(getter);
+                updateBinderList.add(binder);
+            }
+        }
+        this.pojoClass = pojoClass;
+        this.columns = columnList.toArray(new String[0]);
+        this.binders = binderList.toArray(new ParameterBinder[0]);
+        this.getters = getterList.toArray(new Function[0]);
+        this.primaryKeyGetter = primaryKeyGetter;
+        this.primaryKeyBinder = primaryKeyBinder;
+        this.allColumns = allColumnList.toArray(new String[0]);
+        this.allGetters = allGetterList.toArray(new Function[0]);
+        this.updateColumns = updateColumnList.toArray(new String[0]);
+        this.updateGetters = updateGetterList.toArray(new Function[0]);
+        this.updateBinders = updateBinderList.toArray(new ParameterBinder[0]);
+    }
+
+    String[] getColumns() {
+        return columns;
+    }
+
+    Object[] values(Object object) {
+        Object[] values = new Object[getters.length];
+        for (int i = 0; i < getters.length; i++) {
+            values[i] = getters[i].apply(object);
+        }
+        return values;
+    }
+
+    //按getColumns的顺序从第1个参数开始绑定
+    void bind(PreparedStatement ps, Object object) throws SQLException {
+        if (pojoClass.isInstance(object)) {
+            for (int i = 0; i < getters.length; i++) {
+                binders[i].bind(ps, i + 1, getters[i].apply(object));
+            }
+        } else {
+            //不是dao对应的pojo类型时和以前一样按属性名取值
+            SqlParameterSource sps = new BeanPropertySqlParameterSource(object);
+            for (int i = 0; i < columns.length; i++) {
+                Object value = sps.hasValue(columns[i]) ? sps.getValue(columns[i]) : null;
+                StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, value);
+            }
+        }
+    }
+
+    //包含主键的所有列，upsert时用
+    String[] getAllColumns() {
+        return allColumns;
+    }
+
+    Object[] allValues(Object object) {
+        Object[] values = new Object[allGetters.length];
+        for (int i = 0; i < allGetters.length; i++) {
+            values[i] = allGetters[i].apply(object);
+        }
+        return values;
+    }
+
+    String[] getUpdateColumns() {
+        return updateColumns;
+    }
+
+    Object[] updateValues(Object object) {
+        Object[] values = new Object[updateGetters.length];
+        for (int i = 0; i < updateGetters.length; i++) {
+            values[i] = updateGetters[i].apply(object);
+        }
+        return values;
+    }
+
+    //按update t set 修改过的列 = ? ... where 主键 = ? 的顺序绑定
+    void bindUpdate(PreparedStatement ps, BitSet changed, Object[] values, Object primaryKey) throws SQLException {
+        int index = 1;
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            updateBinders[i].bind(ps, index++, values[i]);
+        }
+        primaryKeyBinder.bind(ps, index, primaryKey);
+    }
+
+    Object primaryKeyValue(Object object) {
+        if (primaryKeyGetter == null) {
+            throw new IllegalStateException("pojo里面找不到主键对应的字段");
+        }
+        return primaryKeyGetter.apply(object);
+    }
+
+    Object value(Object object, String columnName) {
+        Function<Object, Object> getter = getterMap.get(columnName);
+        if (getter == null) {
+            throw new IllegalStateException("pojo里面找不到对应数据库的字段: " + columnName);
+        }
+        return getter.apply(object);
+    }
+
+    //估算一个值在多行insert语句里面占用的字节数，字符串按utf8mb4加转义的最坏情况算
+    static int estimateSize(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() * 4 + 2;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length * 2 + 3;
+        }
+        return 32;
+    }
+
+    private static ParameterBinder binderFor(Class<?> type) {
+        if (type == Byte.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.TINYINT);
+                } else {
+                    ps.setByte(index, (Byte) value);
+                }
+            };
+        }
+        if (type == Short.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.SMALLINT);
+                } else {
+                    ps.setShort(index, (Short) value);
+                }
+            };
+        }
+        if (type == Integer.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.INTEGER);
+                } else {
+                    ps.setInt(index, (Integer) value);
+                }
+            };
+        }
+        if (type == Long.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.BIGINT);
+                } else {
+                    ps.setLong(index, (Long) value);
+                }
+            };
+        }
+        if (type == Float.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.REAL);
+                } else {
+                    ps.setFloat(index, (Float) value);
+                }
+            };
+        }
+        if (type == Double.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.DOUBLE);
+                } else {
+                    ps.setDouble(index, (Double) value);
+                }
+            };
+        }
+        if (type == String.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.VARCHAR);
+                } else {
+                    ps.setString(index, (String) value);
+                }
+            };
+        }
+        if (type == Timestamp.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.TIMESTAMP);
+                } else {
+                    ps.setTimestamp(index, (Timestamp) value);
+                }
+            };
+        }
+        if (type == Date.class) {
+            return (ps, index, value) -> {
+                if (value == null) {
+                    ps.setNull(index, Types.TIMESTAMP);
+                } else {
+                    ps.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+                }
+            };
+        }
+        return (ps, index, value) -> StatementCreatorUtils.setParameterValue(ps, index, SqlTypeValue.TYPE_UNKNOWN, value);
+    }
+}
@@ -0,0 +1,70 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Select.execAs(Class)用到的映射，每个dao每种类型只编译一次：
+ * Long、String这类简单类型只取第一列；其他类按字段名找setter，只映射查出来的列，
+ * 结果集的列顺序和pojo一样由PojoMapper按形状缓存
+ */
+final class Projection<P> {
+
+    private final Class<P> type;
+    private final PojoMapper<P> pojoMapper;
+
+    private Projection(Class<P> type, PojoMapper<P> pojoMapper) {
+        this.type = type;
+        this.pojoMapper = pojoMapper;
+    }
+
+    static <P> Projection<P> of(Class<P> type) {
+        if (BeanUtils.isSimpleValueType(type)) {
+            return new Projection<>(type, null);
+        }
+        Map<String, PojoProperty> properties = new LinkedCaseInsensitiveMap<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            try {
+                properties.put(field.getName(), PojoProperty.reflect(type, field.getName()));
+            } catch (NoSuchFieldException | NoSuchMethodException e) {
+                //没有setter的字段不参与映射
+            }
+        }
+        if (properties.isEmpty()) {
+            throw new IllegalStateException(type.getName() + "里面没有可以映射的字段");
+        }
+        return new Projection<>(type, new PojoMapper<>(type, ReflectionUtil.compileConstructor(type), properties));
+    }
+
+    boolean isScalar() {
+        return pojoMapper == null;
+    }
+
+    RowMapper<P> newRowMapper() {
+        return isScalar() ? SingleColumnRowMapper.newInstance(type) : pojoMapper.newRowMapper();
+    }
+
+    //简单类型在分片合并时从RowSet里面取值再转换
+    P convert(Object value) {
+        return value == null ? null : DefaultConversionService.getSharedInstance().convert(value, type);
+    }
+
+    /**
+     * 分片合并排序用：每行返回{映射好的对象, 排序字段1的原始值, 排序字段2的原始值...}，
+     * 排序字段不在映射的类型里面也能排序；结果集最后extraColumns列是为了排序额外查出来的，不参与映射
+     */
+    RowMapper<Object[]> newSortingRowMapper(List<String> orderByColumns, int extraColumns) {
+        return ShardMerger.sortingRowMapper(pojoMapper.newRowMapper(extraColumns), orderByColumns);
+    }
+}
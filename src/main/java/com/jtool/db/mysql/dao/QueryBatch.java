@@ -0,0 +1,261 @@
+package com.jtool.db.mysql.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 把几个互不依赖的查询合成一次往返：落在同一个数据库上的查询用分号拼成一条多语句SQL，
+ * 在一个连接上执行，再按顺序把每个结果集交给各自dao的row mapper。
+ * 需要MySQL连接参数里面有allowMultiQueries=true；不支持多语句的数据库、在多个分片上执行的查询和只有一条查询的数据库都退回单独执行
+ * <pre>
+ * QueryBatch batch = new QueryBatch();
+ * QueryBatch.Result&lt;List&lt;Users&gt;&gt; users = batch.list(userDAO.select().where("age &gt; ?", 10));
+ * QueryBatch.Result&lt;Integer&gt; total = batch.count(orderDAO.select());
+ * batch.execute();
+ * users.get();
+ * </pre>
+ */
+public final class QueryBatch {
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final List<Entry<?>> entries = new ArrayList<>();
+    private boolean executed;
+
+    public <T> Result<List<T>> list(Select<T> select) {
+        return add(select.batchList(), rows -> rows, select::execAsList);
+    }
+
+    public Result<List<Map<String, Object>>> rows(Select<?> select) {
+        return add(select.batchRows(), rows -> rows, select::execAsRows);
+    }
+
+    public Result<Integer> count(Select<?> select) {
+        return add(select.batchCount(), rows -> DataAccessUtils.requiredSingleResult(rows), select::count);
+    }
+
+    private <R, E> Result<R> add(Query<E> query, Function<List<E>, R> finisher, Supplier<R> fallback) {
+        if (executed) {
+            throw new IllegalStateException("QueryBatch已经执行过了，不能再添加查询");
+        }
+        Entry<R> entry = new Entry<>(query, finisher, fallback);
+        entries.add(entry);
+        return entry.result;
+    }
+
+    public void execute() {
+        if (executed) {
+            throw new IllegalStateException("QueryBatch只能执行一次");
+        }
+        executed = true;
+
+        Map<DataSource, List<Entry<?>>> groups = new LinkedHashMap<>();
+        Map<DataSource, JdbcTemplate> templates = new LinkedHashMap<>();
+        for (Entry<?> entry : entries) {
+            JdbcTemplate template = entry.query == null ? null : entry.query.target();
+            if (template == null) {
+                entry.runAlone();
+                continue;
+            }
+            groups.computeIfAbsent(template.getDataSource(), dataSource -> new ArrayList<>()).add(entry);
+            templates.putIfAbsent(template.getDataSource(), template);
+        }
+
+        for (Map.Entry<DataSource, List<Entry<?>>> group : groups.entrySet()) {
+            JdbcTemplate template = templates.get(group.getKey());
+            if (group.getValue().size() == 1 || !group.getValue().get(0).query.dao.supportsMultiQueries(template)) {
+                group.getValue().forEach(Entry::runAlone);
+            } else {
+                pipeline(template, group.getValue());
+            }
+        }
+    }
+
+    //每条查询的执行时间从上一个结果集读完算到这个结果集可以读取，获取连接的时间算在第一条查询上
+    private void pipeline(JdbcTemplate template, List<Entry<?>> group) {
+        StringJoiner sql = new StringJoiner("; ");
+        List<Object> args = new ArrayList<>();
+        for (Entry<?> entry : group) {
+            sql.add(entry.query.sql);
+            Collections.addAll(args, entry.query.args);
+        }
+        log.debug("准备批量执行{}条查询：{} \t {}", group.size(), sql, args);
+        long start = System.nanoTime();
+        template.execute((ConnectionCallback<Void>) connection -> {
+            long connectNanos = System.nanoTime() - start;
+            int completed = 0;
+            PreparedStatement ps = connection.prepareStatement(sql.toString());
+            try {
+                new ArgumentPreparedStatementSetter(args.toArray()).setValues(ps);
+                long executeStart = System.nanoTime();
+                boolean hasResultSet = ps.execute();
+                for (Entry<?> entry : group) {
+                    long executeNanos = System.nanoTime() - executeStart;
+                    if (!hasResultSet) {
+                        throw new DataRetrievalFailureException("批量查询返回的结果集比查询少：" + sql);
+                    }
+                    ResultSet rs = ps.getResultSet();
+                    try {
+                        entry.complete(rs);
+                    } finally {
+                        JdbcUtils.closeResultSet(rs);
+                    }
+                    entry.record(template, connectNanos, executeNanos, null);
+                    completed++;
+                    connectNanos = 0;
+                    executeStart = System.nanoTime();
+                    hasResultSet = ps.getMoreResults();
+                }
+            } catch (SQLException | RuntimeException e) {
+                for (Entry<?> entry : group.subList(completed, group.size())) {
+                    entry.record(template, connectNanos, 0, e);
+                }
+                throw e;
+            } finally {
+                JdbcUtils.closeStatement(ps);
+            }
+            return null;
+        });
+    }
+
+    //没有打开allowMultiQueries的MySQL、useServerPrepStmts=true时的服务端预处理和H2这类替身数据库执行多语句会报语法错误或者只返回一个结果集。
+    //和pipeline一样用PreparedStatement试；连接断开这类其他错误直接抛出，下次再试
+    static boolean probeMultiQueries(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select 1; select 2")) {
+            if (!statement.execute() || !statement.getMoreResults()) {
+                return false;
+            }
+            try (ResultSet rs = statement.getResultSet()) {
+                return rs.next() && rs.getInt(1) == 2;
+            }
+        } catch (SQLException e) {
+            if (isUnsupported(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    //42是语法错误，0A是不支持的功能
+    private static boolean isUnsupported(SQLException e) {
+        String sqlState = e.getSQLState();
+        return e instanceof SQLSyntaxErrorException || e instanceof SQLFeatureNotSupportedException
+                || sqlState != null && (sqlState.startsWith("42") || sqlState.startsWith("0A"));
+    }
+
+    /**
+     * 批量里面一条查询的结果，execute之后才能取
+     */
+    public static final class Result<R> {
+
+        private R value;
+        private boolean done;
+
+        private Result() {
+        }
+
+        public R get() {
+            if (!done) {
+                throw new IllegalStateException("QueryBatch还没有执行");
+            }
+            return value;
+        }
+
+        private void set(R value) {
+            this.value = value;
+            this.done = true;
+        }
+    }
+
+    /**
+     * Select生成的一条查询：SQL、参数、row mapper，以及执行时用来选数据库的dao和分片
+     */
+    static final class Query<E> {
+
+        private final AbstractDAO<?> dao;
+        private final Integer shard;
+        private final String sql;
+        private final Object[] args;
+        private final RowMapper<E> rowMapper;
+
+        Query(AbstractDAO<?> dao, Integer shard, String sql, Object[] args, RowMapper<E> rowMapper) {
+            this.dao = dao;
+            this.shard = shard;
+            this.sql = sql;
+            this.args = args;
+            this.rowMapper = rowMapper;
+        }
+
+        //执行时才选数据库，和单独执行一样走读写分离
+        private JdbcTemplate target() {
+            return dao.readTemplateOf(shard);
+        }
+    }
+
+    private static final class Entry<R> {
+
+        private final Query<?> query;
+        private final Function<List<?>, R> finisher;
+        private final Supplier<R> fallback;
+        private final Result<R> result = new Result<>();
+        private long fetchNanos;
+        private long mapNanos;
+        private int rows;
+
+        @SuppressWarnings("unchecked")
+        <E> Entry(Query<E> query, Function<List<E>, R> finisher, Supplier<R> fallback) {
+            this.query = query;
+            this.finisher = (Function<List<?>, R>) (Function<?, R>) finisher;
+            this.fallback = fallback;
+        }
+
+        private void runAlone() {
+            result.set(fallback.get());
+        }
+
+        private void complete(ResultSet rs) throws SQLException {
+            List<Object> rows = new ArrayList<>();
+            while (true) {
+                long beforeNext = System.nanoTime();
+                boolean hasNext = rs.next();
+                long afterNext = System.nanoTime();
+                fetchNanos += afterNext - beforeNext;
+                if (!hasNext) {
+                    break;
+                }
+                rows.add(query.rowMapper.mapRow(rs, rows.size()));
+                mapNanos += System.nanoTime() - afterNext;
+            }
+            this.rows = rows.size();
+            query.dao.getLog().debug("批量查询找到符合条件记录条数：{} \t {}", rows.size(), query.sql);
+            result.set(finisher.apply(rows));
+        }
+
+        private void record(JdbcTemplate template, long connectNanos, long executeNanos, Throwable error) {
+            query.dao.recordQuery(template, query.sql, query.args, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error);
+        }
+    }
+}
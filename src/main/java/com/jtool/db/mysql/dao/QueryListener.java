@@ -0,0 +1,19 @@
+package com.jtool.db.mysql.dao;
+
+/**
+ * 查询的监控回调。sqlShape是归一化之后的SQL（in列表、多行values和limit的数字都折叠成?），
+ * 时间单位都是纳秒：connectNanos获取连接，executeNanos执行语句，fetchNanos读取结果集，mapNanos映射成对象。
+ * 回调在执行查询的线程上同步调用，实现里面不要做耗时的操作。
+ * 容器里面有唯一一个QueryListener的bean时所有dao自动使用它，也可以调用AbstractDAO.setQueryListener单独设置
+ */
+public interface QueryListener {
+
+    QueryListener NOOP = (dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> {
+    };
+
+    /**
+     * @param rows  查询返回的行数，修改操作影响的行数
+     * @param error 执行成功时为null
+     */
+    void onQuery(String dao, String sqlShape, long connectNanos, long executeNanos, long fetchNanos, long mapNanos, int rows, Throwable error);
+}
@@ -0,0 +1,210 @@
+package com.jtool.db.mysql.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * 设置了QueryListener的dao才会用到：自己执行语句，分别记录获取连接、执行、读取结果集和映射对象的时间
+ */
+class QueryMetrics {
+
+    private static final int MAX_CACHED_SHAPES = 10000;
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.|\"\")*\"");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?([eE][-+]?\\d+)?\\b");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern VALUES_LIST = Pattern.compile("\\(\\?\\)(\\s*,\\s*\\(\\?\\))+");
+    private static final Pattern LIMIT = Pattern.compile("(?i)\\blimit\\s+\\?(\\s*,\\s*\\?)?");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final String daoName;
+    private final QueryListener listener;
+    private final ConcurrentMap<String, String> shapeCache = new ConcurrentHashMap<>();
+
+    QueryMetrics(String daoName, QueryListener listener) {
+        this.daoName = daoName;
+        this.listener = listener;
+    }
+
+    QueryListener getListener() {
+        return listener;
+    }
+
+    <R> List<R> query(JdbcTemplate template, String sql, Object[] args, RowMapper<R> rowMapper) {
+        List<R> result = new ArrayList<>();
+        query(template, sql, args, (RowCallbackHandler) rs -> result.add(rowMapper.mapRow(rs, result.size())));
+        return result;
+    }
+
+    int query(JdbcTemplate template, String sql, Object[] args, RowCallbackHandler handler) {
+        TimedStatement<Integer> statement = new TimedStatement<Integer>(sql, args) {
+            @Override
+            Integer run(PreparedStatement ps) throws SQLException {
+                ResultSet rs = ps.executeQuery();
+                try {
+                    executeNanos = System.nanoTime() - executeStartNanos;
+                    while (true) {
+                        long beforeNext = System.nanoTime();
+                        boolean hasNext = rs.next();
+                        long afterNext = System.nanoTime();
+                        fetchNanos += afterNext - beforeNext;
+                        if (!hasNext) {
+                            return rows;
+                        }
+                        handler.processRow(rs);
+                        rows++;
+                        mapNanos += System.nanoTime() - afterNext;
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                }
+            }
+        };
+        return execute(template, statement);
+    }
+
+    int update(JdbcTemplate template, String sql, Object[] args) {
+        return update(template, sql, args, null);
+    }
+
+    //beforeExecute在绑定完参数、执行之前调用，LOAD DATA LOCAL INFILE用它把数据流交给驱动
+    int update(JdbcTemplate template, String sql, Object[] args, PreparedStatementSetter beforeExecute) {
+        TimedStatement<Integer> statement = new TimedStatement<Integer>(sql, args) {
+            @Override
+            Integer run(PreparedStatement ps) throws SQLException {
+                if (beforeExecute != null) {
+                    beforeExecute.setValues(ps);
+                }
+                rows = ps.executeUpdate();
+                executeNanos = System.nanoTime() - executeStartNanos;
+                return rows;
+            }
+        };
+        return execute(template, statement);
+    }
+
+    //自己绑定参数和执行的语句（单行insert、JDBC batch、取回自增主键的insert），rowsOf从执行结果算出影响的记录条数
+    <R> R execute(JdbcTemplate template, PreparedStatementCreator creator, String sql, PreparedStatementCallback<R> action, ToIntFunction<R> rowsOf) {
+        TimedStatement<R> statement = new TimedStatement<R>(sql, creator, null) {
+            @Override
+            R run(PreparedStatement ps) throws SQLException {
+                R result = action.doInPreparedStatement(ps);
+                executeNanos = System.nanoTime() - executeStartNanos;
+                rows = rowsOf.applyAsInt(result);
+                return result;
+            }
+        };
+        return execute(template, statement);
+    }
+
+    private <R> R execute(JdbcTemplate template, TimedStatement<R> statement) {
+        statement.startNanos = System.nanoTime();
+        Throwable error = null;
+        try {
+            return template.execute(statement);
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            report(statement.sql, statement.connectNanos, statement.executeNanos, statement.fetchNanos, statement.mapNanos, statement.rows, error);
+        }
+    }
+
+    //监听器抛出的异常不能盖掉语句本身的异常
+    void report(String sql, long connectNanos, long executeNanos, long fetchNanos, long mapNanos, int rows, Throwable error) {
+        try {
+            listener.onQuery(daoName, shapeOf(sql), connectNanos, executeNanos, fetchNanos, mapNanos, rows, error);
+        } catch (RuntimeException e) {
+            log.warn("QueryListener执行出错：" + sql, e);
+        }
+    }
+
+    String shapeOf(String sql) {
+        String shape = shapeCache.get(sql);
+        if (shape == null) {
+            shape = normalize(sql);
+            if (shapeCache.size() < MAX_CACHED_SHAPES) {
+                shapeCache.putIfAbsent(sql, shape);
+            }
+        }
+        return shape;
+    }
+
+    //字符串和数字常量都换成?，拼了常量的SQL不会每条都成为一个新的sqlShape
+    static String normalize(String sql) {
+        String shape = STRING_LITERAL.matcher(sql.trim()).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ");
+        shape = PLACEHOLDER_LIST.matcher(shape).replaceAll("(?)");
+        shape = VALUES_LIST.matcher(shape).replaceAll("(?)");
+        return LIMIT.matcher(shape).replaceAll("limit ?");
+    }
+
+    private abstract static class TimedStatement<R> implements ConnectionCallback<R>, SqlProvider {
+
+        final String sql;
+        final PreparedStatementCreator creator;
+        final PreparedStatementSetter argsSetter;
+        long startNanos;
+        long connectNanos;
+        long executeStartNanos;
+        long executeNanos;
+        long fetchNanos;
+        long mapNanos;
+        int rows;
+
+        TimedStatement(String sql, Object[] args) {
+            this(sql, connection -> connection.prepareStatement(sql), new ArgumentPreparedStatementSetter(args));
+        }
+
+        TimedStatement(String sql, PreparedStatementCreator creator, PreparedStatementSetter argsSetter) {
+            this.sql = sql;
+            this.creator = creator;
+            this.argsSetter = argsSetter;
+        }
+
+        @Override
+        public R doInConnection(Connection connection) throws SQLException {
+            connectNanos = System.nanoTime() - startNanos;
+            PreparedStatement ps = creator.createPreparedStatement(connection);
+            try {
+                if (argsSetter != null) {
+                    argsSetter.setValues(ps);
+                }
+                executeStartNanos = System.nanoTime();
+                return run(ps);
+            } finally {
+                JdbcUtils.closeStatement(ps);
+            }
+        }
+
+        abstract R run(PreparedStatement ps) throws SQLException;
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+}
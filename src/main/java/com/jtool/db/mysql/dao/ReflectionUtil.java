@@ -1,7 +1,16 @@
 package com.jtool.db.mysql.dao;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static java.lang.Class.forName;
 
@@ -38,4 +47,79 @@ class ReflectionUtil {
         }
         return ((ParameterizedType)superclassType).getActualTypeArguments();
     }
+
+    /**
+     * 把无参构造函数编译成Supplier，编译失败（例如类不是public）时退回反射
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Supplier<T> compileConstructor(Class<T> clazz) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class),
+                    constructor,
+                    MethodType.methodType(clazz));
+            return (Supplier<T>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            return () -> {
+                try {
+                    return clazz.newInstance();
+                } catch (InstantiationException | IllegalAccessException ex) {
+                    throw new IllegalStateException("无法实例化" + clazz.getName(), ex);
+                }
+            };
+        }
+    }
+
+    /**
+     * 把setter编译成BiConsumer(对象, 值)，setter的返回值会被忽略，编译失败时退回反射
+     */
+    @SuppressWarnings("unchecked")
+    static BiConsumer<Object, Object> compileSetter(Method method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle setter = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    setter,
+                    MethodType.methodType(void.class, method.getDeclaringClass(), method.getParameterTypes()[0]));
+            return (BiConsumer<Object, Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            return (object, value) -> {
+                try {
+                    method.invoke(object, value);
+                } catch (ReflectiveOperationException ex) {
+                    throw new IllegalStateException("反射绑定的时候发生错误", ex);
+                }
+            };
+        }
+    }
+
+    /**
+     * 把getter编译成Function(对象) -> 值，编译失败时退回反射
+     */
+    @SuppressWarnings("unchecked")
+    static Function<Object, Object> compileGetter(Method method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle getter = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    getter,
+                    MethodType.methodType(method.getReturnType(), method.getDeclaringClass()));
+            return (Function<Object, Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            return object -> {
+                try {
+                    return method.invoke(object);
+                } catch (ReflectiveOperationException ex) {
+                    throw new IllegalStateException("反射取值的时候发生错误", ex);
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,632 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列存放的查询结果，用来代替List&lt;Map&lt;String, Object&gt;&gt;：
+ * 整数和浮点数存在基本类型数组里，null用位图记录，字符串通过共享的字典去重，不再每行一个Map。
+ * 取值方式和JDBC一样，基本类型的getter遇到null返回0，需要区分时先调用isNull。
+ * 列名不区分大小写；查询没有记录时也没有列
+ */
+public final class RowSet {
+
+    private static final RowSet EMPTY = new RowSet(new String[0], new Column[0], 0);
+
+    private final String[] columnNames;
+    private final Column[] columns;
+    private final int size;
+    private final Map<String, Integer> columnIndexes = new LinkedCaseInsensitiveMap<>();
+
+    private RowSet(String[] columnNames, Column[] columns, int size) {
+        this.columnNames = columnNames;
+        this.columns = columns;
+        this.size = size;
+        for (int i = 0; i < columnNames.length; i++) {
+            columnIndexes.putIfAbsent(columnNames[i], i);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(Arrays.asList(columnNames));
+    }
+
+    public boolean hasColumn(String column) {
+        return columnIndexes.containsKey(column);
+    }
+
+    public int getColumnIndex(String column) {
+        Integer index = columnIndexes.get(column);
+        if (index == null) {
+            throw new IllegalArgumentException("结果里面没有这个列: " + column);
+        }
+        return index;
+    }
+
+    public boolean isNull(int row, int column) {
+        return columns[column].isNull(checkRow(row));
+    }
+
+    public boolean isNull(int row, String column) {
+        return isNull(row, getColumnIndex(column));
+    }
+
+    public Object getObject(int row, int column) {
+        return columns[column].get(checkRow(row));
+    }
+
+    public Object getObject(int row, String column) {
+        return getObject(row, getColumnIndex(column));
+    }
+
+    public long getLong(int row, int column) {
+        return columns[column].getLong(checkRow(row));
+    }
+
+    public long getLong(int row, String column) {
+        return getLong(row, getColumnIndex(column));
+    }
+
+    public int getInt(int row, int column) {
+        return (int) getLong(row, column);
+    }
+
+    public int getInt(int row, String column) {
+        return getInt(row, getColumnIndex(column));
+    }
+
+    public double getDouble(int row, int column) {
+        return columns[column].getDouble(checkRow(row));
+    }
+
+    public double getDouble(int row, String column) {
+        return getDouble(row, getColumnIndex(column));
+    }
+
+    public String getString(int row, int column) {
+        Object value = getObject(row, column);
+        return value == null ? null : value.toString();
+    }
+
+    public String getString(int row, String column) {
+        return getString(row, getColumnIndex(column));
+    }
+
+    /**
+     * 整列取出，null的位置是0
+     */
+    public long[] getLongs(String column) {
+        Column c = columns[getColumnIndex(column)];
+        if (c instanceof LongColumn) {
+            return Arrays.copyOf(((LongColumn) c).values, size);
+        }
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = c.getLong(i);
+        }
+        return result;
+    }
+
+    /**
+     * 整列取出，null的位置是0
+     */
+    public int[] getInts(String column) {
+        Column c = columns[getColumnIndex(column)];
+        if (c instanceof IntColumn) {
+            return Arrays.copyOf(((IntColumn) c).values, size);
+        }
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (int) c.getLong(i);
+        }
+        return result;
+    }
+
+    /**
+     * 整列取出，null的位置是0
+     */
+    public double[] getDoubles(String column) {
+        Column c = columns[getColumnIndex(column)];
+        if (c instanceof DoubleColumn) {
+            return Arrays.copyOf(((DoubleColumn) c).values, size);
+        }
+        double[] result = new double[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = c.getDouble(i);
+        }
+        return result;
+    }
+
+    public String[] getStrings(String column) {
+        int index = getColumnIndex(column);
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = getString(i, index);
+        }
+        return result;
+    }
+
+    /**
+     * 把一行转成和execAsRows()一样的Map
+     */
+    public Map<String, Object> getRow(int row) {
+        checkRow(row);
+        Map<String, Object> result = new LinkedCaseInsensitiveMap<>(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            result.put(columnNames[i], columns[i].get(row));
+        }
+        return result;
+    }
+
+    public List<Map<String, Object>> toRows() {
+        List<Map<String, Object>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(getRow(i));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RowSet{columns=" + Arrays.toString(columnNames) + ", size=" + size + "}";
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row: " + row + ", size: " + size);
+        }
+        return row;
+    }
+
+    //按给定的行号重新组成一个RowSet，分片合并排序时用
+    RowSet select(List<Integer> rows) {
+        return select(rows, columns.length);
+    }
+
+    //只保留前columnCount列，分片合并排序时额外查出来的排序字段在最后
+    RowSet select(List<Integer> rows, int columnCount) {
+        Column[] result = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            result[i] = columns[i].newColumn();
+            for (int row : rows) {
+                result[i].copy(columns[i], row);
+            }
+            result[i].trim(rows.size());
+        }
+        return new RowSet(Arrays.copyOf(columnNames, columnCount), result, rows.size());
+    }
+
+    //多个分片的结果按顺序拼起来，没有记录的分片没有列，直接跳过
+    static RowSet concat(List<RowSet> parts) {
+        RowSet first = null;
+        int total = 0;
+        for (RowSet part : parts) {
+            if (part.size > 0) {
+                if (first == null) {
+                    first = part;
+                }
+                total += part.size;
+            }
+        }
+        if (first == null) {
+            return EMPTY;
+        }
+        if (total == first.size) {
+            return first;
+        }
+        Column[] result = new Column[first.columns.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = first.columns[i].newColumn();
+            for (RowSet part : parts) {
+                for (int row = 0; row < part.size; row++) {
+                    result[i].copy(part.columns[i], row);
+                }
+            }
+            result[i].trim(total);
+        }
+        return new RowSet(first.columnNames, result, total);
+    }
+
+    /**
+     * 逐行读取结果集，第一行时按metadata决定每一列的存放方式
+     */
+    static final class Builder implements RowCallbackHandler {
+
+        private String[] columnNames;
+        private Column[] columns;
+        private int size;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (columns == null) {
+                init(rs.getMetaData());
+            }
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].read(rs, i + 1);
+            }
+            size++;
+        }
+
+        private void init(ResultSetMetaData metaData) throws SQLException {
+            int columnCount = metaData.getColumnCount();
+            columnNames = new String[columnCount];
+            columns = new Column[columnCount];
+            for (int i = 1; i <= columnCount; i++) {
+                columnNames[i - 1] = JdbcUtils.lookupColumnName(metaData, i);
+                columns[i - 1] = columnFor(metaData.getColumnClassName(i));
+            }
+        }
+
+        RowSet build() {
+            if (columns == null) {
+                return EMPTY;
+            }
+            for (Column column : columns) {
+                column.trim(size);
+            }
+            return new RowSet(columnNames, columns, size);
+        }
+
+        private static Column columnFor(String className) {
+            if (Integer.class.getName().equals(className) || Short.class.getName().equals(className) || Byte.class.getName().equals(className)) {
+                return new IntColumn();
+            }
+            if (Long.class.getName().equals(className)) {
+                return new LongColumn();
+            }
+            if (Double.class.getName().equals(className) || Float.class.getName().equals(className)) {
+                return new DoubleColumn();
+            }
+            if (String.class.getName().equals(className)) {
+                return new StringColumn();
+            }
+            return new ObjectColumn();
+        }
+    }
+
+    private abstract static class Column {
+
+        static final int INITIAL_CAPACITY = 16;
+
+        BitSet nulls;
+        int size;
+
+        abstract void read(ResultSet rs, int index) throws SQLException;
+
+        abstract Object get(int row);
+
+        abstract Column newColumn();
+
+        //从同一种列里面追加一行
+        abstract void copy(Column from, int row);
+
+        abstract void trim(int size);
+
+        boolean isNull(int row) {
+            return nulls != null && nulls.get(row);
+        }
+
+        void markNull(int row) {
+            if (nulls == null) {
+                nulls = new BitSet();
+            }
+            nulls.set(row);
+        }
+
+        long getLong(int row) {
+            Object value = get(row);
+            return value == null ? 0 : ((Number) value).longValue();
+        }
+
+        double getDouble(int row) {
+            Object value = get(row);
+            return value == null ? 0 : ((Number) value).doubleValue();
+        }
+
+        static int grow(int length) {
+            return Math.max(INITIAL_CAPACITY, length + (length >> 1));
+        }
+    }
+
+    private static final class IntColumn extends Column {
+
+        int[] values = new int[INITIAL_CAPACITY];
+
+        @Override
+        void read(ResultSet rs, int index) throws SQLException {
+            int value = rs.getInt(index);
+            append(value, rs.wasNull());
+        }
+
+        private void append(int value, boolean isNull) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            if (isNull) {
+                markNull(size);
+            } else {
+                values[size] = value;
+            }
+            size++;
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        Column newColumn() {
+            return new IntColumn();
+        }
+
+        @Override
+        void copy(Column from, int row) {
+            append(((IntColumn) from).values[row], from.isNull(row));
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongColumn extends Column {
+
+        long[] values = new long[INITIAL_CAPACITY];
+
+        @Override
+        void read(ResultSet rs, int index) throws SQLException {
+            long value = rs.getLong(index);
+            append(value, rs.wasNull());
+        }
+
+        private void append(long value, boolean isNull) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            if (isNull) {
+                markNull(size);
+            } else {
+                values[size] = value;
+            }
+            size++;
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        Column newColumn() {
+            return new LongColumn();
+        }
+
+        @Override
+        void copy(Column from, int row) {
+            append(((LongColumn) from).values[row], from.isNull(row));
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+
+        double[] values = new double[INITIAL_CAPACITY];
+
+        @Override
+        void read(ResultSet rs, int index) throws SQLException {
+            double value = rs.getDouble(index);
+            append(value, rs.wasNull());
+        }
+
+        private void append(double value, boolean isNull) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            if (isNull) {
+                markNull(size);
+            } else {
+                values[size] = value;
+            }
+            size++;
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            return (long) values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        Column newColumn() {
+            return new DoubleColumn();
+        }
+
+        @Override
+        void copy(Column from, int row) {
+            append(((DoubleColumn) from).values[row], from.isNull(row));
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * 每行只存字典里的下标，相同的字符串只保存一份，null的下标是-1
+     */
+    private static final class StringColumn extends Column {
+
+        int[] codes = new int[INITIAL_CAPACITY];
+        String[] dictionary = new String[INITIAL_CAPACITY];
+        int dictionarySize;
+        Map<String, Integer> lookup = new HashMap<>();
+
+        @Override
+        void read(ResultSet rs, int index) throws SQLException {
+            append(rs.getString(index));
+        }
+
+        private void append(String value) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length));
+            }
+            codes[size++] = value == null ? -1 : code(value);
+        }
+
+        private int code(String value) {
+            Integer code = lookup.get(value);
+            if (code == null) {
+                if (dictionarySize == dictionary.length) {
+                    dictionary = Arrays.copyOf(dictionary, grow(dictionary.length));
+                }
+                dictionary[dictionarySize] = value;
+                code = dictionarySize++;
+                lookup.put(value, code);
+            }
+            return code;
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return codes[row] < 0;
+        }
+
+        @Override
+        Object get(int row) {
+            int code = codes[row];
+            return code < 0 ? null : dictionary[code];
+        }
+
+        @Override
+        long getLong(int row) {
+            Object value = get(row);
+            return value == null ? 0 : Long.parseLong((String) value);
+        }
+
+        @Override
+        double getDouble(int row) {
+            Object value = get(row);
+            return value == null ? 0 : Double.parseDouble((String) value);
+        }
+
+        @Override
+        Column newColumn() {
+            return new StringColumn();
+        }
+
+        @Override
+        void copy(Column from, int row) {
+            append((String) from.get(row));
+        }
+
+        //建完以后不会再追加，查找用的Map可以丢掉
+        @Override
+        void trim(int size) {
+            codes = Arrays.copyOf(codes, size);
+            dictionary = Arrays.copyOf(dictionary, dictionarySize);
+            lookup = null;
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+
+        Object[] values = new Object[INITIAL_CAPACITY];
+
+        @Override
+        void read(ResultSet rs, int index) throws SQLException {
+            append(JdbcUtils.getResultSetValue(rs, index));
+        }
+
+        private void append(Object value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return values[row] == null;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        Column newColumn() {
+            return new ObjectColumn();
+        }
+
+        @Override
+        void copy(Column from, int row) {
+            append(from.get(row));
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.jtool.db.mysql.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 表结构快照：每个DataSource只用一条information_schema.columns查询读出所有表的字段，同一个容器里面的dao共用。
+ * 第一个dao初始化时并行读取所有dao用到的DataSource。
+ * 设置了snapshotFile时先用一条聚合查询算出表结构的hash和文件比较，一致时直接使用文件里面的字段，不一致时重新读取并写回文件。
+ * 容器里面有唯一一个SchemaSnapshot的bean时所有dao使用它，否则每个容器使用一个不带文件的默认实例。
+ * 快照里面找不到的表先重新读取一次快照，还是找不到时dao会退回用DatabaseMetaData读取
+ */
+public class SchemaSnapshot {
+
+    //容器被回收时默认实例和它引用的DataSource跟着释放
+    private static final Map<ApplicationContext, SchemaSnapshot> DEFAULTS = new WeakHashMap<>();
+
+    private static final String COLUMNS_SQL = "select table_name, column_name from information_schema.columns " +
+            "where table_schema = database() order by table_name, ordinal_position";
+    private static final String HASH_SQL = "select count(1), coalesce(sum(crc32(concat_ws(',', table_name, column_name, ordinal_position, column_type))), 0) " +
+            "from information_schema.columns where table_schema = database()";
+    private static final String HASH_KEY = "hash";
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final File snapshotFile;
+    private final ConcurrentMap<DataSource, CompletableFuture<Map<String, List<String>>>> schemas = new ConcurrentHashMap<>();
+    private final AtomicBoolean prefetched = new AtomicBoolean();
+
+    public SchemaSnapshot() {
+        this(null);
+    }
+
+    public SchemaSnapshot(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    static SchemaSnapshot of(ApplicationContext context) {
+        Map<String, SchemaSnapshot> snapshots = context.getBeansOfType(SchemaSnapshot.class);
+        if (snapshots.size() == 1) {
+            return snapshots.values().iterator().next();
+        }
+        synchronized (DEFAULTS) {
+            return DEFAULTS.computeIfAbsent(context, key -> new SchemaSnapshot());
+        }
+    }
+
+    /**
+     * 返回表的字段（按表里面的顺序），快照里面没有这个表时重新读取一次，还是没有时返回null
+     */
+    List<String> columns(DataSource dataSource, String tableName) {
+        CompletableFuture<Map<String, List<String>>> future = schemaOf(dataSource, Runnable::run);
+        List<String> columns = find(future.join(), tableName);
+        if (columns == null) {
+            //快照读出来以后可能又建了新表
+            CompletableFuture<Map<String, List<String>>> reloaded = CompletableFuture.completedFuture(reload(dataSource));
+            schemas.replace(dataSource, future, reloaded);
+            columns = find(reloaded.join(), tableName);
+        }
+        return columns;
+    }
+
+    //容器关闭时释放DataSource
+    void forget(DataSource dataSource) {
+        schemas.remove(dataSource);
+    }
+
+    private static List<String> find(Map<String, List<String>> tables, String tableName) {
+        List<String> columns = tables.get(tableName);
+        if (columns == null) {
+            for (Map.Entry<String, List<String>> entry : tables.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(tableName)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return columns;
+    }
+
+    //所有dao用到的DataSource并行读取，只在第一个dao初始化时执行一次
+    void prefetch(ApplicationContext context) {
+        if (!prefetched.compareAndSet(false, true)) {
+            return;
+        }
+        Set<String> dataSourceNames = new LinkedHashSet<>();
+        for (String beanName : context.getBeanNamesForAnnotation(com.jtool.db.mysql.annotation.DataSource.class)) {
+            com.jtool.db.mysql.annotation.DataSource annotation = context.findAnnotationOnBean(beanName, com.jtool.db.mysql.annotation.DataSource.class);
+            if (annotation.shards().length > 0) {
+                dataSourceNames.add(annotation.shards()[0]);
+            } else if (!"".equals(annotation.value())) {
+                dataSourceNames.add(annotation.value());
+            }
+        }
+        if (dataSourceNames.size() <= 1) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(dataSourceNames.size(), 8), runnable -> {
+            Thread thread = new Thread(runnable, "jtool-mysql-schema");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String dataSourceName : dataSourceNames) {
+            if (context.containsBean(dataSourceName)) {
+                DataSource dataSource = context.getBean(dataSourceName, DataSource.class);
+                schemaOf(dataSource, executor);
+            }
+        }
+        executor.shutdown();
+    }
+
+    private CompletableFuture<Map<String, List<String>>> schemaOf(DataSource dataSource, Executor executor) {
+        CompletableFuture<Map<String, List<String>>> future = schemas.get(dataSource);
+        if (future == null) {
+            CompletableFuture<Map<String, List<String>>> created = new CompletableFuture<>();
+            future = schemas.putIfAbsent(dataSource, created);
+            if (future == null) {
+                future = created;
+                executor.execute(() -> created.complete(load(dataSource)));
+            }
+        }
+        return future;
+    }
+
+    private Map<String, List<String>> load(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            String catalog = connection.getCatalog();
+            if (snapshotFile == null) {
+                return queryAndStore(connection, catalog, null);
+            }
+            //hash只扫一遍information_schema返回一行，比读出所有字段省得多
+            String hash = queryHash(connection);
+            Snapshot snapshot = readSnapshot(catalog);
+            if (snapshot != null && snapshot.hash.equals(hash)) {
+                log.debug("使用表结构快照文件：{} \t {}", snapshotFile, catalog);
+                return snapshot.tables;
+            }
+            if (snapshot != null) {
+                log.info("表结构和快照文件不一致，重新读取并写回文件：{} \t {}", snapshotFile, catalog);
+            }
+            return queryAndStore(connection, catalog, hash);
+        } catch (SQLException | RuntimeException e) {
+            log.debug("无法批量读取表结构，dao会逐个使用DatabaseMetaData读取", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private Map<String, List<String>> reload(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return queryAndStore(connection, connection.getCatalog(), snapshotFile == null ? null : queryHash(connection));
+        } catch (SQLException | RuntimeException e) {
+            log.debug("无法批量读取表结构，dao会逐个使用DatabaseMetaData读取", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    //hash为null时不写文件
+    private Map<String, List<String>> queryAndStore(Connection connection, String catalog, String hash) throws SQLException {
+        Map<String, List<String>> tables = queryColumns(connection);
+        log.debug("读取表结构：{} \t {}个表", catalog, tables.size());
+        if (hash != null && !tables.isEmpty()) {
+            writeSnapshot(catalog, hash, tables);
+        }
+        return tables;
+    }
+
+    private static Map<String, List<String>> queryColumns(Connection connection) throws SQLException {
+        Map<String, List<String>> tables = new HashMap<>();
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(COLUMNS_SQL)) {
+            while (rs.next()) {
+                tables.computeIfAbsent(rs.getString(1), key -> new ArrayList<>()).add(rs.getString(2));
+            }
+        }
+        return tables;
+    }
+
+    private static String queryHash(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(HASH_SQL)) {
+            rs.next();
+            return rs.getLong(1) + ":" + rs.getLong(2);
+        }
+    }
+
+    //文件格式：catalog.hash=hash，catalog.表名=字段1,字段2
+    private synchronized Snapshot readSnapshot(String catalog) {
+        Properties properties = loadProperties();
+        String hash = properties.getProperty(catalog + "." + HASH_KEY);
+        if (hash == null) {
+            return null;
+        }
+        Map<String, List<String>> tables = new HashMap<>();
+        String prefix = catalog + ".";
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix) && !key.equals(prefix + HASH_KEY)) {
+                tables.put(key.substring(prefix.length()), Arrays.asList(properties.getProperty(key).split(",")));
+            }
+        }
+        return new Snapshot(hash, tables);
+    }
+
+    private synchronized void writeSnapshot(String catalog, String hash, Map<String, List<String>> tables) {
+        Properties properties = loadProperties();
+        String prefix = catalog + ".";
+        properties.stringPropertyNames().stream().filter(key -> key.startsWith(prefix)).forEach(properties::remove);
+        properties.setProperty(prefix + HASH_KEY, hash);
+        for (Map.Entry<String, List<String>> entry : tables.entrySet()) {
+            properties.setProperty(prefix + entry.getKey(), String.join(",", entry.getValue()));
+        }
+        try {
+            File parent = snapshotFile.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+            File tmp = new File(snapshotFile.getPath() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                properties.store(out, "jtool-mysql2 schema snapshot");
+            }
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("无法写入表结构快照文件：" + snapshotFile, e);
+        }
+    }
+
+    private Properties loadProperties() {
+        Properties properties = new Properties();
+        if (snapshotFile.isFile()) {
+            try (InputStream in = Files.newInputStream(snapshotFile.toPath())) {
+                properties.load(in);
+            } catch (IOException e) {
+                log.warn("无法读取表结构快照文件：" + snapshotFile, e);
+            }
+        }
+        return properties;
+    }
+
+    private static final class Snapshot {
+
+        private final String hash;
+        private final Map<String, List<String>> tables;
+
+        Snapshot(String hash, Map<String, List<String>> tables) {
+            this.hash = hash;
+            this.tables = tables;
+        }
+    }
+}
@@ -1,9 +1,24 @@
 package com.jtool.db.mysql.dao;
 
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class Select<T> {
 
+    private static final Pattern OR_PATTERN = Pattern.compile("(?i)\\bor\\b");
+    private static final Pattern AND_PATTERN = Pattern.compile("(?i)\\s+and\\s+");
+
     private final List<Object> args = new ArrayList<>();
 
     private AbstractDAO<T> abstractDAO;
@@ -14,6 +29,12 @@ public class Select<T> {
     private Integer start;
     private Integer len;
 
+    private boolean keyset;
+    private boolean keysetDesc;
+    private Object keysetValue;
+
+    private Object shardKeyValue;
+
     private String action = "select";
 
     Select(String fields, AbstractDAO<T> abstractDAO) {
@@ -42,6 +63,7 @@ public class Select<T> {
         return this;
     }
 
+    //在所有分片上执行时合并排序的字符串按不区分大小写的_ci规则比较，见ShardMerger
     public Select<T> orderByAsc(String orderBy) {
         if(this.orderByStr == null) {
             this.orderByStr = orderBy;
@@ -69,66 +91,473 @@ public class Select<T> {
         return this;
     }
 
+    public Select<T> limit(int len) {
+        return limit(0, len);
+    }
+
+    //按主键翻页：取主键大于lastKey的记录并按主键升序排列，lastKey为null时从第一条开始
+    public Select<T> after(Object lastKey) {
+        return keyset(lastKey, false);
+    }
+
+    //按主键倒序翻页：取主键小于lastKey的记录并按主键降序排列，lastKey为null时从最后一条开始
+    public Select<T> before(Object lastKey) {
+        return keyset(lastKey, true);
+    }
+
+    private Select<T> keyset(Object lastKey, boolean desc) {
+        abstractDAO.requirePrimaryKeyName(desc ? "before" : "after");
+        this.keyset = true;
+        this.keysetDesc = desc;
+        this.keysetValue = lastKey;
+        return this;
+    }
+
+    //分片的dao：指定分片字段的值，只查询这个值所在的分片
+    public Select<T> onShard(Object shardKeyValue) {
+        if(!abstractDAO.isSharded()) {
+            throw new IllegalStateException("需要使用onShard方法,必须在dao的@DataSource注解设置shards的值");
+        }
+        this.shardKeyValue = shardKeyValue;
+        return this;
+    }
+
+    //按主键顺序分批遍历所有符合条件的记录，每一批都是一次按主键定位的查询，不会随着遍历越来越慢
+    public Iterator<List<T>> chunkIterator(int chunkSize) {
+        if (!keyset) {
+            after(null);
+        }
+        limit(chunkSize);
+
+        return new Iterator<List<T>>() {
+
+            private List<T> chunk;
+            private boolean finished;
+
+            @Override
+            public boolean hasNext() {
+                if (chunk == null && !finished) {
+                    List<T> list = execAsList();
+                    if (list.size() < chunkSize) {
+                        finished = true;
+                    }
+                    if (!list.isEmpty()) {
+                        Object lastKey = abstractDAO.getPrimaryKeyValue(list.get(list.size() - 1));
+                        if (lastKey == null) {
+                            throw new IllegalStateException("按主键分批遍历时select的字段里面必须包含主键");
+                        }
+                        keysetValue = lastKey;
+                        chunk = list;
+                    }
+                }
+                return chunk != null;
+            }
+
+            @Override
+            public List<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> result = chunk;
+                chunk = null;
+                return result;
+            }
+        };
+    }
+
+    public void forEachChunk(int chunkSize, Consumer<List<T>> consumer) {
+        chunkIterator(chunkSize).forEachRemaining(consumer);
+    }
+
     public List<T> execAsList() {
-        return execAsList(makeSQL());
+        Integer shard = targetShard();
+        if(isFanOut(shard)) {
+            List<String> extraColumns = missingOrderByColumns(fields);
+            if(!extraColumns.isEmpty()) {
+                return fanOutSorted(ShardMerger.sortingRowMapper(abstractDAO.newRowMapper(extraColumns.size()), ShardMerger.orderByColumns(effectiveOrderBy())));
+            }
+            List<T> rows = abstractDAO.queryList(null, makeSQL(action, fields, true, true), makeArgs());
+            return ShardMerger.sortAndLimit(rows, effectiveOrderBy(), abstractDAO::getColumnValue, start, len);
+        }
+        return abstractDAO.queryList(shard, makeSQL(), makeArgs());
     }
 
     public List<T> execAsList(String sql) {
-        return abstractDAO.execSelectSqlAsList(sql, args.toArray());
+        return abstractDAO.execSelectSqlAsList(sql, makeArgs());
     }
 
     public List<Map<String, Object>> execAsRows() {
-        return execAsRows(makeSQL());
+        Integer shard = targetShard();
+        if(isFanOut(shard)) {
+            List<String> extraColumns = missingOrderByColumns(fields);
+            List<Map<String, Object>> rows = abstractDAO.queryRows(null, makeSQL(action, withOrderByColumns(fields), true, true), makeArgs());
+            List<Map<String, Object>> result = ShardMerger.sortAndLimit(rows, effectiveOrderBy(), Map::get, start, len);
+            for(Map<String, Object> row : result) {
+                row.keySet().removeAll(extraColumns);
+            }
+            return result;
+        }
+        return abstractDAO.queryRows(shard, makeSQL(), makeArgs());
     }
 
     public List<Map<String, Object>> execAsRows(String sql) {
-        return abstractDAO.execSelectSqlAsRows(sql, args.toArray());
+        return abstractDAO.execSelectSqlAsRows(sql, makeArgs());
+    }
+
+    public RowSet execAsRowSet() {
+        Integer shard = targetShard();
+        if(isFanOut(shard)) {
+            return fanOutRowSet(fields);
+        }
+        return abstractDAO.queryRowSet(shard, makeSQL(), makeArgs());
+    }
+
+    public RowSet execAsRowSet(String sql) {
+        return abstractDAO.execSelectSqlAsRowSet(sql, makeArgs());
+    }
+
+    //select(fields)只查部分字段时映射成DTO或者Long、String这类简单类型，不再生成大部分字段为空的pojo
+    @SuppressWarnings("unchecked")
+    public <P> List<P> execAs(Class<P> type) {
+        if (type == abstractDAO.getDbPojoClass()) {
+            return (List<P>) execAsList();
+        }
+        Projection<P> projection = abstractDAO.projectionOf(type);
+        Integer shard = targetShard();
+        if(isFanOut(shard)) {
+            if(projection.isScalar()) {
+                RowSet rowSet = fanOutRowSet(fields);
+                List<P> result = new ArrayList<>(rowSet.size());
+                for (int i = 0; i < rowSet.size(); i++) {
+                    result.add(projection.convert(rowSet.getObject(i, 0)));
+                }
+                return result;
+            }
+            String orderBy = effectiveOrderBy();
+            if(orderBy == null) {
+                return ShardMerger.sortAndLimit(abstractDAO.queryAs(null, makeSQL(action, fields, true, true), makeArgs(), projection), null, null, start, len);
+            }
+            //按查出来的原始值排序，排序字段不在DTO里面时也额外查出来
+            return fanOutSorted(projection.newSortingRowMapper(ShardMerger.orderByColumns(orderBy), missingOrderByColumns(fields).size()));
+        }
+        return abstractDAO.queryAs(shard, makeSQL(), makeArgs(), projection);
+    }
+
+    //只取第一列，null按0处理
+    public long[] execAsLongs() {
+        Integer shard = targetShard();
+        if(isFanOut(shard)) {
+            RowSet rowSet = fanOutRowSet(fields);
+            return rowSet.isEmpty() ? new long[0] : rowSet.getLongs(rowSet.getColumnNames().get(0));
+        }
+        return abstractDAO.queryLongs(shard, makeSQL(), makeArgs());
+    }
+
+    //只取第一列
+    public List<String> execAsStrings() {
+        return execAs(String.class);
+    }
+
+    public void forEach(Consumer<? super T> consumer) {
+        Integer shard = checkStreamable();
+        abstractDAO.queryForEach(shard, makeSQL(), consumer, makeArgs());
+    }
+
+    public Stream<T> execAsStream() {
+        Integer shard = checkStreamable();
+        return abstractDAO.queryStream(shard, makeSQL(), makeArgs());
     }
 
     public Optional<T> execAsPojoOpt() {
-        return execAsPojoOpt(makeSQL());
+        Integer shard = targetShard();
+        int start = this.start == null ? 0 : this.start;
+        int len = uniqueCheckLimit();
+        if(isFanOut(shard)) {
+            List<T> rows = abstractDAO.queryList(null, makeSQL(action, fields, true, true, start, len), makeArgs());
+            rows = ShardMerger.sortAndLimit(rows, effectiveOrderBy(), abstractDAO::getColumnValue, start, len);
+            if(rows.size() > 1) {
+                throw new IncorrectResultSizeDataAccessException(1, rows.size());
+            }
+            return rows.isEmpty() ? Optional.empty() : Optional.of(rows.get(0));
+        }
+        return abstractDAO.queryPojoOpt(shard, makeSQL(action, fields, true, false, start, len), makeArgs());
     }
 
     public Optional<T> execAsPojoOpt(String sql) {
-        return abstractDAO.execSelectSqlAsPojoOpt(sql, args.toArray());
+        return abstractDAO.execSelectSqlAsPojoOpt(sql, makeArgs());
     }
 
     public int count() {
         this.fields = "count(1)";
-        String sql = makeSQL();
-        abstractDAO.getLog().debug("准备计算记录条数：{} \t {}", sql, args);
-        int result = abstractDAO.jdbcTemplate.queryForObject(sql, args.toArray(), Integer.class);
-        abstractDAO.getLog().debug("计算记录条数为：{}", result);
-        return result;
+        return abstractDAO.queryCount(targetShard(), makeSQL(false), makeArgs());
+    }
+
+    //ttl之内相同的条件和参数直接返回上一次的结果，适合报表这类不要求实时的场景，写入不会让缓存失效；事务里面不使用缓存
+    public int countCached(long ttl, TimeUnit unit) {
+        return abstractDAO.queryCountCached(targetShard(), makeSQL(action, "count(1)", false), makeArgs(), ttl, unit);
+    }
+
+    //估计的记录条数，不扫描数据：没有条件时取表的统计信息，有条件时取EXPLAIN估计的行数，都取不到时退回精确的count。
+    //统计信息看不到事务里面还没提交的修改，所以事务里面直接用精确的count
+    public long countApproximate() {
+        Integer shard = targetShard();
+        long result;
+        if(TransactionSynchronizationManager.isActualTransactionActive()) {
+            result = -1;
+        } else if(whereStr == null && !(keyset && keysetValue != null)) {
+            result = abstractDAO.estimateTableRows(shard);
+        } else {
+            result = abstractDAO.estimateRows(shard, makeSQL(action, "1", false, false, null, null), makeArgs());
+        }
+        return result >= 0 ? result : abstractDAO.queryCount(shard, makeSQL(action, "count(1)", false, false, null, null), makeArgs());
     }
 
+    //和count()一样不考虑limit，最多读两行就能判断
     public boolean hasOnlyOneRecord() {
-        return 1 == this.count();
+        final boolean result = abstractDAO.queryLongs(targetShard(), makeSQL(action, "1", false, false, 0, 2), makeArgs()).length == 1;
+        abstractDAO.getLog().debug("是否只有一条纪录：{}", result);
+        return result;
     }
 
     public boolean hasRecord() {
-        this.fields = "1";
-        final boolean result = !abstractDAO.execSelectSqlAsRows(makeSQL(), args.toArray()).isEmpty();
+        Integer shard = targetShard();
+        final boolean result;
+        if(isFanOut(shard) && start != null && start > 0) {
+            //每个分片最多取start + 1条，合起来超过start条就说明有记录
+            result = abstractDAO.queryLongs(null, makeSQL(action, "1", false, true, start, 1), makeArgs()).length > start;
+        } else {
+            result = abstractDAO.queryExists(shard, existsSQL(), makeArgs());
+        }
         abstractDAO.getLog().debug("是否有纪录：{}", result);
         return result;
     }
 
+    //判断有没有记录不需要排序也不需要读出记录：select exists(select 1 from t where ...)，有offset时在子查询里面保留
+    private String existsSQL() {
+        Integer start = this.start == null || this.start == 0 ? null : this.start;
+        return "select exists(" + makeSQL(action, "1", false, false, start, start == null ? null : 1) + ")";
+    }
+
+    //execAsPojoOpt只需要知道结果是不是唯一的，最多读两行
+    private int uniqueCheckLimit() {
+        return len == null ? 2 : Math.min(len, 2);
+    }
+
+    public CompletableFuture<List<T>> execAsListAsync() {
+        return abstractDAO.async(this::execAsList);
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> execAsRowsAsync() {
+        return abstractDAO.async(this::execAsRows);
+    }
+
+    public CompletableFuture<Optional<T>> execAsPojoOptAsync() {
+        return abstractDAO.async(this::execAsPojoOpt);
+    }
+
+    public CompletableFuture<Integer> countAsync() {
+        return abstractDAO.async(this::count);
+    }
+
+    public CompletableFuture<Boolean> hasRecordAsync() {
+        return abstractDAO.async(this::hasRecord);
+    }
+
+    //QueryBatch用：生成这条查询的SQL和row mapper，分片的dao要在所有分片上执行时返回null，由QueryBatch单独执行
+    QueryBatch.Query<T> batchList() {
+        Integer shard = targetShard();
+        return isFanOut(shard) ? null : new QueryBatch.Query<>(abstractDAO, shard, makeSQL(), makeArgs(), abstractDAO.makeRowMapperInstance());
+    }
+
+    QueryBatch.Query<Map<String, Object>> batchRows() {
+        Integer shard = targetShard();
+        return isFanOut(shard) ? null : new QueryBatch.Query<>(abstractDAO, shard, makeSQL(), makeArgs(), new ColumnMapRowMapper());
+    }
+
+    QueryBatch.Query<Integer> batchCount() {
+        Integer shard = targetShard();
+        return isFanOut(shard) ? null : new QueryBatch.Query<>(abstractDAO, shard, makeSQL(action, "count(1)", false), makeArgs(), new SingleColumnRowMapper<>(Integer.class));
+    }
+
     public int delete() {
         this.action = "delete";
         this.fields = "";
-        return abstractDAO.execUpdate(makeSQL(), args.toArray());
+        Integer shard = targetShard();
+        if(isFanOut(shard) && len != null) {
+            throw new IllegalStateException("分片的dao不能在所有分片上执行带limit的delete");
+        }
+        return abstractDAO.update(shard, makeSQL(), makeArgs());
+    }
+
+    //把当前的查询形状编译成不可变的模板，SQL只拼一次；where里面已经绑定的参数会放在每次执行的参数前面
+    public SelectTemplate<T> compile() {
+        if(keyset) {
+            throw new IllegalStateException("after/before的查询不能编译成模板");
+        }
+        if(abstractDAO.isSharded()) {
+            throw new IllegalStateException("分片的dao不能编译成模板");
+        }
+        return new SelectTemplate<>(abstractDAO,
+                makeSQL(action, fields, true),
+                makeSQL(action, "count(1)", false),
+                existsSQL(),
+                makeSQL(action, fields, true, false, start == null ? 0 : start, uniqueCheckLimit()),
+                args.toArray());
+    }
+
+    //分片的dao：onShard指定了分片字段的值，或者where里面只用and连接并且有"分片字段 = ?"时只查一个分片，否则返回null。
+    //只认字面上的"分片字段 = ?"（字段名可以带反引号），in、between、字段名带表别名、值直接写在SQL里面的条件都会在所有分片上执行
+    private Integer targetShard() {
+        if(!abstractDAO.isSharded()) {
+            return null;
+        }
+        if(shardKeyValue != null) {
+            return abstractDAO.shardOf(shardKeyValue);
+        }
+        if(whereStr == null || whereStr.contains("(") || OR_PATTERN.matcher(whereStr).find()) {
+            return null;
+        }
+        Pattern shardKeyPattern = abstractDAO.getShardKeyTerm();
+        int argIndex = 0;
+        for(String term : AND_PATTERN.split(whereStr)) {
+            if(shardKeyPattern.matcher(term.trim()).matches()) {
+                return argIndex < args.size() ? abstractDAO.shardOf(args.get(argIndex)) : null;
+            }
+            for(int i = 0; i < term.length(); i++) {
+                if(term.charAt(i) == '?') {
+                    argIndex++;
+                }
+            }
+        }
+        return null;
+    }
+
+    //排序字段不在fields里面时也额外查出来，合并排序之后再丢掉
+    private RowSet fanOutRowSet(String fields) {
+        int extraColumns = missingOrderByColumns(fields).size();
+        RowSet rowSet = abstractDAO.queryRowSet(null, makeSQL(action, withOrderByColumns(fields), true, true), makeArgs());
+        if (rowSet.isEmpty()) {
+            return rowSet;
+        }
+        List<Integer> rows = new ArrayList<>(rowSet.size());
+        for (int i = 0; i < rowSet.size(); i++) {
+            rows.add(i);
+        }
+        List<Integer> selected = ShardMerger.sortAndLimit(rows, effectiveOrderBy(), (row, column) -> rowSet.getObject(row, column), start, len);
+        return rowSet.select(selected, rowSet.getColumnCount() - extraColumns);
+    }
+
+    //rowMapper每行返回{映射好的对象, 排序字段1的原始值, 排序字段2的原始值...}，按原始值合并排序之后只留下映射好的对象
+    @SuppressWarnings("unchecked")
+    private <P> List<P> fanOutSorted(RowMapper<Object[]> rowMapper) {
+        String orderBy = effectiveOrderBy();
+        List<String> orderByColumns = ShardMerger.orderByColumns(orderBy);
+        List<Object[]> rows = abstractDAO.queryMapped(null, makeSQL(action, withOrderByColumns(fields), true, true), makeArgs(), rowMapper);
+        List<P> result = new ArrayList<>();
+        for(Object[] row : ShardMerger.sortAndLimit(rows, orderBy, (row, column) -> row[orderByColumns.indexOf(column) + 1], start, len)) {
+            result.add((P) row[0]);
+        }
+        return result;
+    }
+
+    //在所有分片上执行时，把排序用到但是fields里面没有的字段也查出来
+    private String withOrderByColumns(String fields) {
+        StringBuilder result = new StringBuilder(fields);
+        for(String column : missingOrderByColumns(fields)) {
+            result.append(", ").append(column);
+        }
+        return result.toString();
+    }
+
+    private List<String> missingOrderByColumns(String fields) {
+        String orderBy = effectiveOrderBy();
+        List<String> result = new ArrayList<>();
+        if(orderBy == null || "*".equals(fields.trim())) {
+            return result;
+        }
+        Set<String> selected = new HashSet<>();
+        for(String field : fields.split(",")) {
+            selected.add(field.trim().replace("`", "").toLowerCase());
+        }
+        for(String column : ShardMerger.orderByColumns(orderBy)) {
+            if(selected.add(column.toLowerCase())) {
+                result.add(column);
+            }
+        }
+        return result;
+    }
+
+    private boolean isFanOut(Integer shard) {
+        return abstractDAO.isSharded() && shard == null;
+    }
+
+    private Integer checkStreamable() {
+        Integer shard = targetShard();
+        if(isFanOut(shard) && (effectiveOrderBy() != null || len != null)) {
+            throw new IllegalStateException("分片的流式查询在所有分片上执行时不支持orderBy和limit");
+        }
+        return shard;
+    }
+
+    private String effectiveOrderBy() {
+        if(keyset) {
+            if(orderByStr != null) {
+                throw new IllegalStateException("after/before已经按主键排序，不能再使用orderBy");
+            }
+            String primaryKeyName = abstractDAO.requirePrimaryKeyName(keysetDesc ? "before" : "after");
+            return keysetDesc ? primaryKeyName + " desc" : primaryKeyName;
+        }
+        return orderByStr;
+    }
+
+    private Object[] makeArgs() {
+        if(keyset && keysetValue != null) {
+            Object[] result = args.toArray(new Object[args.size() + 1]);
+            result[args.size()] = keysetValue;
+            return result;
+        }
+        return args.toArray();
+    }
+
+    //execAsList这类方法每次调用都要拼的SQL，压测用
+    String sql() {
+        return makeSQL();
     }
 
     private String makeSQL(){
+        return makeSQL(true);
+    }
+
+    private String makeSQL(boolean ordered){
+        return makeSQL(action, fields, ordered, false);
+    }
+
+    private String makeSQL(String action, String fields, boolean ordered){
+        return makeSQL(action, fields, ordered, false);
+    }
+
+    private String makeSQL(String action, String fields, boolean ordered, boolean fanOut){
+        return makeSQL(action, fields, ordered, fanOut, start, len);
+    }
+
+    //count这类聚合查询不需要排序，ordered为false时不拼order by；
+    //fanOut为true时每个分片都要取前start + len条，合并排序之后再截取
+    private String makeSQL(String action, String fields, boolean ordered, boolean fanOut, Integer start, Integer len){
         String sql = action + " " + fields + " from " + abstractDAO.getTableName();
-        if(whereStr != null) {
-            sql += " where " + whereStr;
+        String where = whereStr;
+        String orderBy = effectiveOrderBy();
+        if(keyset && keysetValue != null) {
+            String seek = abstractDAO.requirePrimaryKeyName(keysetDesc ? "before" : "after") + (keysetDesc ? " < ?" : " > ?");
+            where = where == null ? seek : "(" + where + ") and " + seek;
+        }
+        if(where != null) {
+            sql += " where " + where;
         }
-        if(orderByStr != null) {
-            sql += " order by " + orderByStr;
+        if(ordered && orderBy != null) {
+            sql += " order by " + orderBy;
         }
         if(start != null && len != null){
-            sql += " limit " + start + ", " + len;
+            sql += fanOut ? " limit " + (start + len) : " limit " + start + ", " + len;
         }
         return sql;
     }
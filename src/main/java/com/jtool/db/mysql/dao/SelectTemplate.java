@@ -0,0 +1,90 @@
+package com.jtool.db.mysql.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Select.compile()的结果：SQL在编译时已经拼好，执行时只需要绑定参数，可以在多个线程之间共享
+ */
+public final class SelectTemplate<T> {
+
+    private final AbstractDAO<T> abstractDAO;
+
+    private final String sql;
+    private final String countSql;
+    private final String existsSql;
+    private final String pojoOptSql;
+    private final Object[] boundArgs;
+
+    SelectTemplate(AbstractDAO<T> abstractDAO, String sql, String countSql, String existsSql, String pojoOptSql, Object[] boundArgs) {
+        this.abstractDAO = abstractDAO;
+        this.sql = sql;
+        this.countSql = countSql;
+        this.existsSql = existsSql;
+        this.pojoOptSql = pojoOptSql;
+        this.boundArgs = boundArgs;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<T> execAsList(Object... args) {
+        return abstractDAO.execSelectSqlAsList(sql, makeArgs(args));
+    }
+
+    public List<Map<String, Object>> execAsRows(Object... args) {
+        return abstractDAO.execSelectSqlAsRows(sql, makeArgs(args));
+    }
+
+    public RowSet execAsRowSet(Object... args) {
+        return abstractDAO.execSelectSqlAsRowSet(sql, makeArgs(args));
+    }
+
+    public <P> List<P> execAs(Class<P> type, Object... args) {
+        return abstractDAO.execSelectSqlAs(type, sql, makeArgs(args));
+    }
+
+    public long[] execAsLongs(Object... args) {
+        return abstractDAO.execSelectSqlAsLongs(sql, makeArgs(args));
+    }
+
+    public List<String> execAsStrings(Object... args) {
+        return abstractDAO.execSelectSqlAsStrings(sql, makeArgs(args));
+    }
+
+    public Optional<T> execAsPojoOpt(Object... args) {
+        return abstractDAO.execSelectSqlAsPojoOpt(pojoOptSql, makeArgs(args));
+    }
+
+    public void forEach(Consumer<? super T> consumer, Object... args) {
+        abstractDAO.execSelectSqlForEach(sql, consumer, makeArgs(args));
+    }
+
+    public Stream<T> execAsStream(Object... args) {
+        return abstractDAO.execSelectSqlAsStream(sql, makeArgs(args));
+    }
+
+    public int count(Object... args) {
+        return abstractDAO.queryCount(null, countSql, makeArgs(args));
+    }
+
+    public boolean hasRecord(Object... args) {
+        final boolean result = abstractDAO.queryExists(null, existsSql, makeArgs(args));
+        abstractDAO.getLog().debug("是否有纪录：{}", result);
+        return result;
+    }
+
+    private Object[] makeArgs(Object[] args) {
+        if (boundArgs.length == 0) {
+            return args;
+        }
+        Object[] result = new Object[boundArgs.length + args.length];
+        System.arraycopy(boundArgs, 0, result, 0, boundArgs.length);
+        System.arraycopy(args, 0, result, boundArgs.length, args.length);
+        return result;
+    }
+}
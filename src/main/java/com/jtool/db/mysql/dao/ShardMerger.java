@@ -0,0 +1,101 @@
+package com.jtool.db.mysql.dao;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiFunction;
+
+/**
+ * 合并多个分片的查询结果：按order by重新排序，再按limit截取。
+ * 字符串按MySQL默认的_ci排序规则比较（不区分大小写和重音），排序字段用了_bin、_cs这类排序规则时，
+ * 合并的顺序可能和单库查询不一样
+ */
+final class ShardMerger {
+
+    private ShardMerger() {
+    }
+
+    static <R> List<R> sortAndLimit(List<R> rows, String orderBy, BiFunction<R, String, Object> columnValue, Integer start, Integer len) {
+        List<R> result = rows;
+        if (orderBy != null) {
+            result = new ArrayList<>(rows);
+            result.sort(comparator(orderBy, columnValue));
+        }
+        if (start != null && len != null) {
+            if (start >= result.size()) {
+                return Collections.emptyList();
+            }
+            result = result.subList(start, Math.min(result.size(), start + len));
+        }
+        return result;
+    }
+
+    private static <R> Comparator<R> comparator(String orderBy, BiFunction<R, String, Object> columnValue) {
+        //Collator不是线程安全的，每次排序用一个新的
+        Collator collator = Collator.getInstance(Locale.ROOT);
+        collator.setStrength(Collator.PRIMARY);
+        Comparator<R> result = null;
+        for (String item : orderBy.split(",")) {
+            final String columnName = columnOf(item);
+            Comparator<R> comparator = (a, b) -> compareValues(columnValue.apply(a, columnName), columnValue.apply(b, columnName), collator);
+            if (isDesc(item)) {
+                comparator = comparator.reversed();
+            }
+            result = result == null ? comparator : result.thenComparing(comparator);
+        }
+        return result;
+    }
+
+    //每行返回{rowMapper映射好的对象, 排序字段1的原始值, 排序字段2的原始值...}
+    static RowMapper<Object[]> sortingRowMapper(RowMapper<?> rowMapper, List<String> orderByColumns) {
+        return (rs, i) -> {
+            Object[] row = new Object[orderByColumns.size() + 1];
+            row[0] = rowMapper.mapRow(rs, i);
+            for (int j = 0; j < orderByColumns.size(); j++) {
+                row[j + 1] = rs.getObject(orderByColumns.get(j));
+            }
+            return row;
+        };
+    }
+
+    static List<String> orderByColumns(String orderBy) {
+        List<String> result = new ArrayList<>();
+        for (String item : orderBy.split(",")) {
+            result.add(columnOf(item));
+        }
+        return result;
+    }
+
+    private static String columnOf(String item) {
+        String column = item.trim().split("\\s+")[0].replace("`", "");
+        if (column.contains("(")) {
+            throw new IllegalStateException("分片查询的orderBy只支持字段名: " + item);
+        }
+        if (column.contains(".")) {
+            column = column.substring(column.lastIndexOf('.') + 1);
+        }
+        return column;
+    }
+
+    private static boolean isDesc(String item) {
+        String[] words = item.trim().split("\\s+");
+        return words.length > 1 && "desc".equalsIgnoreCase(words[1]);
+    }
+
+    //和MySQL一样，升序时null排在最前面
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b, Collator collator) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (a instanceof String && b instanceof String) {
+            return collator.compare((String) a, (String) b);
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+}
@@ -0,0 +1,162 @@
+package com.jtool.db.mysql.dao;
+
+import com.jtool.db.mysql.annotation.ShardStrategy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 水平分片：按分片字段的值把记录路由到某一个数据源，确定不了分片时并行访问所有分片。
+ * 事务只能绑定在一个数据源上，所以事务里面不会开线程，而是在当前线程依次访问各个分片。
+ * 并行访问时第一个分片在当前线程执行，其他分片交给线程池；线程池不排队，线程用完时在当前线程执行，
+ * 并发的查询多了也不会排在少数几个线程后面
+ */
+class ShardRouter {
+
+    //线程池最多按分片数乘以这个数开线程
+    private static final int PARALLEL_CALLERS = 16;
+
+    private final String shardKey;
+    //where里面按这个匹配"分片字段 = ?"，每个dao只编译一次
+    private final Pattern shardKeyTerm;
+    private final ShardStrategy strategy;
+    private final long[] ranges;
+
+    private final List<JdbcTemplate> shards = new ArrayList<>();
+    private final ExecutorService executor;
+
+    ShardRouter(String tableName, String shardKey, ShardStrategy strategy, long[] ranges, List<DataSource> dataSources) {
+        if (shardKey == null || "".equals(shardKey)) {
+            throw new IllegalStateException("分片的dao必须在@Table注解设置shardKey的值");
+        }
+        if (strategy == ShardStrategy.RANGE) {
+            if (ranges.length != dataSources.size() - 1) {
+                throw new IllegalStateException("按范围分片时shardRanges的个数应该比分片数少1");
+            }
+            for (int i = 1; i < ranges.length; i++) {
+                if (ranges[i] <= ranges[i - 1]) {
+                    throw new IllegalStateException("shardRanges必须是递增的");
+                }
+            }
+        }
+        this.shardKey = shardKey;
+        this.shardKeyTerm = Pattern.compile("`?" + Pattern.quote(shardKey) + "`?\\s*=\\s*\\?");
+        this.strategy = strategy;
+        this.ranges = ranges.clone();
+
+        for (DataSource dataSource : dataSources) {
+            shards.add(new JdbcTemplate(dataSource));
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, Math.max(1, (dataSources.size() - 1) * PARALLEL_CALLERS), 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "jtool-mysql-shard-" + tableName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    String getShardKey() {
+        return shardKey;
+    }
+
+    Pattern getShardKeyTerm() {
+        return shardKeyTerm;
+    }
+
+    int size() {
+        return shards.size();
+    }
+
+    JdbcTemplate shard(int index) {
+        return shards.get(index);
+    }
+
+    List<JdbcTemplate> targets(Integer shard) {
+        return shard == null ? shards : Collections.singletonList(shards.get(shard));
+    }
+
+    int shardOf(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("分片字段" + shardKey + "的值不能为空");
+        }
+        Long number = toLong(value);
+        if (strategy == ShardStrategy.RANGE) {
+            if (number == null) {
+                throw new IllegalArgumentException("按范围分片时分片字段必须是整数: " + value);
+            }
+            int index = Arrays.binarySearch(ranges, number);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+        long hash = number != null ? number : value.toString().hashCode();
+        return (int) Math.floorMod(hash, (long) shards.size());
+    }
+
+    //在多个分片上执行，结果按分片顺序返回
+    <R> List<R> scatter(List<JdbcTemplate> targets, Function<JdbcTemplate, R> action) {
+        List<R> result = new ArrayList<>(targets.size());
+        if (targets.size() == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            for (JdbcTemplate target : targets) {
+                result.add(action.apply(target));
+            }
+            return result;
+        }
+
+        List<Future<R>> futures = new ArrayList<>(targets.size() - 1);
+        for (JdbcTemplate target : targets.subList(1, targets.size())) {
+            futures.add(executor.submit(() -> action.apply(target)));
+        }
+        try {
+            result.add(action.apply(targets.get(0)));
+            for (Future<R> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待分片查询结果时被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Long toLong(Object value) {
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.valueOf(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
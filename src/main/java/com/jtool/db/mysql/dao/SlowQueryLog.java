@@ -0,0 +1,173 @@
+package com.jtool.db.mysql.dao;
+
+import org.slf4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢查询记录：超过阈值的语句打warn日志并放进固定大小的环形缓冲区，
+ * 按采样比例在后台对select语句执行EXPLAIN，执行计划保存在对应的SlowQuery里面
+ */
+public class SlowQueryLog {
+
+    private static final String REDACTED = "***";
+    private static final int EXPLAIN_QUEUE_SIZE = 64;
+
+    //EXPLAIN专用的单线程，队列满了直接丢弃，不占用异步查询的线程池，也不会回到查询线程上执行
+    private static final ThreadPoolExecutor EXPLAIN_EXECUTOR = newExplainExecutor();
+
+    private final long thresholdNanos;
+    private final double explainSampleRate;
+    private final boolean redactArgs;
+    private final SlowQuery[] buffer;
+    private long count;
+
+    public static final class SlowQuery {
+        private final long timestamp;
+        private final String sql;
+        private final String sqlShape;
+        private final List<Object> args;
+        private final long durationNanos;
+        private final int rows;
+        private volatile List<Map<String, Object>> explain;
+
+        private SlowQuery(String sql, List<Object> args, long durationNanos, int rows) {
+            this.timestamp = System.currentTimeMillis();
+            this.sql = sql;
+            this.sqlShape = QueryMetrics.normalize(sql);
+            this.args = args;
+            this.durationNanos = durationNanos;
+            this.rows = rows;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getSqlShape() {
+            return sqlShape;
+        }
+
+        public List<Object> getArgs() {
+            return args;
+        }
+
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * 没有采样到或者EXPLAIN还没执行完时返回null
+         */
+        public List<Map<String, Object>> getExplain() {
+            return explain;
+        }
+
+        @Override
+        public String toString() {
+            return "SlowQuery{" +
+                    "durationMillis=" + getDuration(TimeUnit.MILLISECONDS) +
+                    ", rows=" + rows +
+                    ", sql='" + sql + '\'' +
+                    ", args=" + args +
+                    ", explain=" + explain +
+                    '}';
+        }
+    }
+
+    SlowQueryLog(long threshold, TimeUnit unit, double explainSampleRate, boolean redactArgs, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("慢查询记录的大小应该大于0");
+        }
+        if (explainSampleRate < 0 || explainSampleRate > 1) {
+            throw new IllegalArgumentException("EXPLAIN的采样比例应该在0和1之间");
+        }
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.explainSampleRate = explainSampleRate;
+        this.redactArgs = redactArgs;
+        this.buffer = new SlowQuery[capacity];
+    }
+
+    boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    void record(Logger log, JdbcTemplate template, String sql, Object[] args, long durationNanos, int rows) {
+        List<Object> argList = args == null ? Collections.emptyList() : Arrays.asList(args.clone());
+        if (redactArgs) {
+            argList = Collections.nCopies(argList.size(), REDACTED);
+        }
+        SlowQuery slowQuery = new SlowQuery(sql, argList, durationNanos, rows);
+        synchronized (buffer) {
+            buffer[(int) (count++ % buffer.length)] = slowQuery;
+        }
+        log.warn("慢查询：{}ms \t {}", slowQuery.getDuration(TimeUnit.MILLISECONDS), slowQuery);
+
+        if (explainSampleRate > 0 && isSelect(sql) && ThreadLocalRandom.current().nextDouble() < explainSampleRate) {
+            //EXPLAIN放到后台执行，不增加这次查询的耗时
+            EXPLAIN_EXECUTOR.execute(() -> {
+                try {
+                    slowQuery.explain = template.queryForList("explain " + sql, args);
+                    log.warn("慢查询的执行计划：{} \t {}", sql, slowQuery.explain);
+                } catch (RuntimeException e) {
+                    log.warn("慢查询执行EXPLAIN失败：" + sql, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 按时间顺序返回缓冲区里面的慢查询
+     */
+    public List<SlowQuery> dump() {
+        synchronized (buffer) {
+            int size = (int) Math.min(count, buffer.length);
+            List<SlowQuery> result = new ArrayList<>(size);
+            for (long i = count - size; i < count; i++) {
+                result.add(buffer[(int) (i % buffer.length)]);
+            }
+            return result;
+        }
+    }
+
+    public void clear() {
+        synchronized (buffer) {
+            Arrays.fill(buffer, null);
+            count = 0;
+        }
+    }
+
+    private static ThreadPoolExecutor newExplainExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(EXPLAIN_QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "jtool-mysql-explain");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static boolean isSelect(String sql) {
+        return sql.trim().regionMatches(true, 0, "select", 0, 6);
+    }
+}
@@ -0,0 +1,362 @@
+package com.jtool.db.mysql.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译时为每个@Table的dao生成GeneratedMapping实现，运行时dao初始化不再需要反射pojo类型、构造函数和setter/getter。
+ * 不满足生成条件的dao（pojo不是public、没有public无参构造函数、字段是基本类型等）只给出NOTE，运行时继续用反射
+ */
+public class TableProcessor extends AbstractProcessor {
+
+    private static final String TABLE = "com.jtool.db.mysql.annotation.Table";
+    private static final String ABSTRACT_DAO = "com.jtool.db.mysql.dao.AbstractDAO";
+    private static final String GENERATED_MAPPING = "com.jtool.db.mysql.dao.GeneratedMapping";
+    private static final String SUFFIX = "_JtoolMapping";
+    private static final String[] GENERATED_ANNOTATIONS = {"javax.annotation.processing.Generated", "javax.annotation.Generated"};
+
+    private final Set<String> generated = new LinkedHashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(TABLE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement table = processingEnv.getElementUtils().getTypeElement(TABLE);
+        if (table != null) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(table)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    continue;
+                }
+                TypeElement dao = (TypeElement) element;
+                try {
+                    generate(dao, table);
+                } catch (Exception e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "生成" + dao.getQualifiedName() + "的mapping失败，运行时将使用反射: " + e, dao);
+                }
+            }
+        }
+        if (roundEnv.processingOver() && !generated.isEmpty()) {
+            writeServiceFile();
+        }
+        return false;
+    }
+
+    private void generate(TypeElement dao, TypeElement table) throws IOException {
+        if (dao.getModifiers().contains(Modifier.ABSTRACT)) {
+            return;
+        }
+        if (dao.getModifiers().contains(Modifier.PRIVATE) || !isAccessible(dao)) {
+            skip(dao, "dao不能是private的");
+            return;
+        }
+
+        TypeElement pojo = findPojo(dao);
+        if (pojo == null) {
+            skip(dao, "找不到AbstractDAO的泛型参数");
+            return;
+        }
+        if (!pojo.getModifiers().contains(Modifier.PUBLIC) || !isAccessible(pojo)) {
+            skip(dao, pojo.getQualifiedName() + "不是public的");
+            return;
+        }
+        if (!pojo.getTypeParameters().isEmpty()) {
+            skip(dao, pojo.getQualifiedName() + "带有泛型");
+            return;
+        }
+        if (!hasPublicNoArgConstructor(pojo)) {
+            skip(dao, pojo.getQualifiedName() + "没有public的无参构造函数");
+            return;
+        }
+
+        Map<String, String[]> properties = new LinkedHashMap<>();
+        for (VariableElement field : ElementFilter.fieldsIn(pojo.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            TypeMirror type = field.asType();
+            if (type.getKind().isPrimitive()) {
+                skip(dao, pojo.getQualifiedName() + "的字段" + field.getSimpleName() + "是基本类型");
+                return;
+            }
+            String name = field.getSimpleName().toString();
+            String setter = findSetter(pojo, name, type);
+            if (setter == null) {
+                skip(dao, pojo.getQualifiedName() + "的字段" + name + "没有public的setter");
+                return;
+            }
+            properties.put(name, new String[]{erasure(type), setter, findGetter(pojo, name, type)});
+        }
+
+        Map<String, String> values = tableValues(dao, table);
+        String tableName = values.get("tableName");
+        String primaryKeyName = values.containsKey("primaryKeyName") ? values.get("primaryKeyName") : "";
+
+        String packageName = packageOf(dao);
+        String daoName = dao.getQualifiedName().toString();
+        String simpleName = (packageName.isEmpty() ? daoName : daoName.substring(packageName.length() + 1)).replace('.', '_') + SUFFIX;
+        String mappingName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(mappingName, dao, pojo);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source(packageName, simpleName, daoName, pojo.getQualifiedName().toString(),
+                    tableName, primaryKeyName, properties));
+        }
+        generated.add(mappingName);
+    }
+
+    //JDK 9以后是javax.annotation.processing.Generated，JDK 11去掉了javax.annotation.Generated，两个都找不到时不加注解
+    private String generatedAnnotation() {
+        for (String name : GENERATED_ANNOTATIONS) {
+            if (processingEnv.getElementUtils().getTypeElement(name) != null) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private String source(String packageName, String simpleName, String daoName, String pojoName,
+                          String tableName, String primaryKeyName, Map<String, String[]> properties) {
+        boolean hasPrimaryKey = !primaryKeyName.isEmpty();
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        String generatedAnnotation = generatedAnnotation();
+        if (generatedAnnotation != null) {
+            sb.append("@").append(generatedAnnotation).append("(\"").append(TableProcessor.class.getName()).append("\")\n");
+        }
+        sb.append("public final class ").append(simpleName)
+                .append(" implements ").append(GENERATED_MAPPING).append("<").append(pojoName).append("> {\n\n");
+        sb.append("    public static final String TABLE_NAME = ").append(literal(tableName)).append(";\n");
+        sb.append("    public static final String PRIMARY_KEY_NAME = ").append(literal(primaryKeyName)).append(";\n");
+        sb.append("    public static final String SELECT_BY_PRIMARY_KEY_SQL = ")
+                .append(hasPrimaryKey ? literal("select * from " + tableName + " where " + primaryKeyName + " = ?") : "null").append(";\n");
+        sb.append("    public static final String DELETE_BY_PRIMARY_KEY_SQL = ")
+                .append(hasPrimaryKey ? literal("delete from " + tableName + " where " + primaryKeyName + " = ?") : "null").append(";\n\n");
+
+        sb.append("    @Override\n    public Class<?> daoClass() {\n        return ").append(daoName).append(".class;\n    }\n\n");
+        sb.append("    @Override\n    public Class<").append(pojoName).append("> pojoClass() {\n        return ").append(pojoName).append(".class;\n    }\n\n");
+        sb.append("    @Override\n    public String tableName() {\n        return TABLE_NAME;\n    }\n\n");
+        sb.append("    @Override\n    public String primaryKeyName() {\n        return PRIMARY_KEY_NAME;\n    }\n\n");
+        sb.append("    @Override\n    public ").append(pojoName).append(" newInstance() {\n        return new ").append(pojoName).append("();\n    }\n\n");
+
+        sb.append("    @Override\n    public Class<?> propertyType(String property) {\n        switch (property) {\n");
+        for (Map.Entry<String, String[]> entry : properties.entrySet()) {
+            sb.append("            case ").append(literal(entry.getKey())).append(":\n                return ")
+                    .append(entry.getValue()[0]).append(".class;\n");
+        }
+        sb.append("            default:\n                return null;\n        }\n    }\n\n");
+
+        sb.append("    @Override\n    public java.util.function.BiConsumer<Object, Object> setter(String property) {\n        switch (property) {\n");
+        for (Map.Entry<String, String[]> entry : properties.entrySet()) {
+            sb.append("            case ").append(literal(entry.getKey())).append(":\n                return (object, value) -> ((")
+                    .append(pojoName).append(") object).").append(entry.getValue()[1]).append("((")
+                    .append(entry.getValue()[0]).append(") value);\n");
+        }
+        sb.append("            default:\n                return null;\n        }\n    }\n\n");
+
+        sb.append("    @Override\n    public java.util.function.Function<Object, Object> getter(String property) {\n        switch (property) {\n");
+        for (Map.Entry<String, String[]> entry : properties.entrySet()) {
+            if (entry.getValue()[2] != null) {
+                sb.append("            case ").append(literal(entry.getKey())).append(":\n                return object -> ((")
+                        .append(pojoName).append(") object).").append(entry.getValue()[2]).append("();\n");
+            }
+        }
+        sb.append("            default:\n                return null;\n        }\n    }\n\n");
+
+        sb.append("    @Override\n    public String selectByPrimaryKeySql() {\n        return SELECT_BY_PRIMARY_KEY_SQL;\n    }\n\n");
+        sb.append("    @Override\n    public String deleteByPrimaryKeySql() {\n        return DELETE_BY_PRIMARY_KEY_SQL;\n    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void writeServiceFile() {
+        Filer filer = processingEnv.getFiler();
+        String resource = "META-INF/services/" + GENERATED_MAPPING;
+        Set<String> lines = new LinkedHashSet<>();
+        try {
+            //增量编译时保留之前登记的mapping
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", resource);
+            for (String line : existing.getCharContent(true).toString().split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line.trim());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            //之前没有登记过
+        }
+        lines.addAll(generated);
+        try {
+            FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resource);
+            try (Writer writer = file.openWriter()) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "写入" + resource + "失败，运行时将按类名查找mapping: " + e);
+        }
+    }
+
+    //沿着父类找到AbstractDAO<X>，返回X
+    private TypeElement findPojo(TypeElement dao) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror current = dao.getSuperclass();
+        while (current.getKind() == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) current;
+            TypeElement element = (TypeElement) declared.asElement();
+            if (element.getQualifiedName().contentEquals(ABSTRACT_DAO)) {
+                List<? extends TypeMirror> arguments = declared.getTypeArguments();
+                if (arguments.size() == 1 && arguments.get(0).getKind() == TypeKind.DECLARED) {
+                    return (TypeElement) types.asElement(arguments.get(0));
+                }
+                return null;
+            }
+            current = element.getSuperclass();
+        }
+        return null;
+    }
+
+    private boolean hasPublicNoArgConstructor(TypeElement pojo) {
+        if (pojo.getModifiers().contains(Modifier.ABSTRACT)
+                || (pojo.getNestingKind().isNested() && !pojo.getModifiers().contains(Modifier.STATIC))) {
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(pojo.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String findSetter(TypeElement pojo, String name, TypeMirror type) {
+        String methodName = "set" + capitalize(name);
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : ElementFilter.methodsIn(pojo.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(methodName)
+                    && method.getParameters().size() == 1
+                    && types.isSameType(method.getParameters().get(0).asType(), type)
+                    && method.getModifiers().contains(Modifier.PUBLIC)
+                    && !method.getModifiers().contains(Modifier.STATIC)) {
+                return methodName;
+            }
+        }
+        return null;
+    }
+
+    private String findGetter(TypeElement pojo, String name, TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        List<String> candidates = new ArrayList<>();
+        candidates.add("get" + capitalize(name));
+        candidates.add("is" + capitalize(name));
+        for (String candidate : candidates) {
+            for (ExecutableElement method : ElementFilter.methodsIn(pojo.getEnclosedElements())) {
+                if (method.getSimpleName().contentEquals(candidate)
+                        && method.getParameters().isEmpty()
+                        && types.isSameType(method.getReturnType(), type)
+                        && method.getModifiers().contains(Modifier.PUBLIC)
+                        && !method.getModifiers().contains(Modifier.STATIC)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Map<String, String> tableValues(TypeElement dao, TypeElement table) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (AnnotationMirror mirror : dao.getAnnotationMirrors()) {
+            if (processingEnv.getTypeUtils().isSameType(mirror.getAnnotationType(), table.asType())) {
+                for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                    Object value = entry.getValue().getValue();
+                    if (value instanceof String) {
+                        values.put(entry.getKey().getSimpleName().toString(), (String) value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    //生成的类和dao在同一个包里面，嵌套类的每一层都不能是private的
+    private boolean isAccessible(TypeElement type) {
+        Element current = type;
+        while (current != null && current.getKind() != ElementKind.PACKAGE) {
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            current = current.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    private void skip(TypeElement dao, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                dao.getQualifiedName() + "不生成mapping，运行时将使用反射: " + reason, dao);
+    }
+
+    private static String capitalize(String name) {
+        return name.substring(0, 1).toUpperCase() + name.substring(1);
+    }
+
+    private static String literal(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,44 @@
+package com.jtool.db.mysql.dao;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+
+//forDataSource和release是包内可见的，测试放在同一个包里面
+public class AsyncExecutorsTest {
+
+	@Test
+	public void testShutdownWhenLastDaoReleases() {
+		DataSource dataSource = new DriverManagerDataSource();
+		ExecutorService first = AsyncExecutors.forDataSource(dataSource, 2);
+		ExecutorService second = AsyncExecutors.forDataSource(dataSource, 2);
+		Assert.assertSame(first, second);
+
+		AsyncExecutors.release(dataSource);
+		Assert.assertFalse(first.isShutdown());
+		AsyncExecutors.release(dataSource);
+		Assert.assertTrue(first.isShutdown());
+
+		//容器重启以后重新创建
+		ExecutorService third = AsyncExecutors.forDataSource(dataSource, 2);
+		Assert.assertNotSame(first, third);
+		AsyncExecutors.release(dataSource);
+	}
+
+	@Test
+	public void testMismatchedThreadsDoesNotCount() {
+		DataSource dataSource = new DriverManagerDataSource();
+		ExecutorService executor = AsyncExecutors.forDataSource(dataSource, 2);
+		try {
+			AsyncExecutors.forDataSource(dataSource, 3);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			//asyncThreads不一样
+		}
+		AsyncExecutors.release(dataSource);
+		Assert.assertTrue(executor.isShutdown());
+	}
+}
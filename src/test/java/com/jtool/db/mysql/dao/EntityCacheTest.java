@@ -0,0 +1,42 @@
+package com.jtool.db.mysql.dao;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+//generation、put和putMiss是包内可见的，测试放在同一个包里面
+public class EntityCacheTest {
+
+	@Test
+	public void testStalePutIsDropped() {
+		EntityCache<StringBuilder> cache = new EntityCache<>(10, 60, TimeUnit.SECONDS, true, value -> new StringBuilder(value));
+
+		//查数据库期间别的线程修改并清掉了缓存，查到的旧数据不能放回去
+		long generation = cache.generation();
+		cache.invalidate(1L);
+		cache.put(1L, new StringBuilder("v1"), generation);
+		cache.putMiss(2L, generation);
+		Assert.assertNull(cache.get(1L));
+		Assert.assertNull(cache.get(2L));
+
+		generation = cache.generation();
+		cache.put(1L, new StringBuilder("v2"), generation);
+		Assert.assertEquals("v2", cache.get(1L).get().toString());
+	}
+
+	@Test
+	public void testValuesAreCopied() {
+		EntityCache<StringBuilder> cache = new EntityCache<>(10, 60, TimeUnit.SECONDS, false, value -> new StringBuilder(value));
+		StringBuilder value = new StringBuilder("v1");
+		cache.put(1L, value, cache.generation());
+		value.append("-changed");
+		cache.get(1L).get().append("-changed");
+		Assert.assertEquals("v1", cache.get(1L).get().toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTtlRequired() {
+		new EntityCache<StringBuilder>(10, 0, TimeUnit.SECONDS, false, value -> value);
+	}
+}
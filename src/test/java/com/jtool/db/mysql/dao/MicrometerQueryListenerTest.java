@@ -0,0 +1,24 @@
+package com.jtool.db.mysql.dao;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+//OTHER_SQL是包内可见的，测试放在同一个包里面
+public class MicrometerQueryListenerTest {
+
+	@Test
+	public void testSqlShapesAreCapped() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerQueryListener listener = new MicrometerQueryListener(registry, 2);
+		for (int i = 0; i < 10; i++) {
+			listener.onQuery("UserDAO", "select * from users where c" + i + " = ?", 0, 1000, 0, 0, 1, null);
+		}
+		listener.onQuery("UserDAO", "select * from users where c0 = ?", 0, 1000, 0, 0, 1, null);
+
+		Assert.assertEquals(3, registry.find("jtool.mysql.query.rows").summaries().size());
+		Assert.assertEquals(2, registry.find("jtool.mysql.query.rows").tag("sql", "select * from users where c0 = ?").summary().count());
+		Assert.assertEquals(8, registry.find("jtool.mysql.query.rows").tag("sql", MicrometerQueryListener.OTHER_SQL).summary().count());
+	}
+}
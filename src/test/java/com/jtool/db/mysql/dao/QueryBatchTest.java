@@ -0,0 +1,29 @@
+package com.jtool.db.mysql.dao;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+//probeMultiQueries是包内可见的，测试放在同一个包里面
+public class QueryBatchTest {
+
+	@Test
+	public void testProbeSyntaxErrorMeansUnsupported() throws SQLException {
+		Assert.assertFalse(QueryBatch.probeMultiQueries(failingConnection(new SQLException("You have an error in your SQL syntax", "42000", 1064))));
+	}
+
+	//连接断开这类错误不能当成不支持多语句记下来
+	@Test(expected = SQLException.class)
+	public void testProbeConnectionErrorIsThrown() throws SQLException {
+		QueryBatch.probeMultiQueries(failingConnection(new SQLException("Communications link failure", "08S01")));
+	}
+
+	private static Connection failingConnection(SQLException error) {
+		return (Connection) Proxy.newProxyInstance(QueryBatchTest.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+			throw error;
+		});
+	}
+}
@@ -0,0 +1,108 @@
+package com.jtool.db.mysql.dao;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+//columns是包内可见的，测试放在同一个包里面
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class SchemaSnapshotTest extends AbstractJUnit4SpringContextTests {
+
+	private static final List<String> USERS_COLUMNS = Arrays.asList("id", "name", "age", "birthday", "height");
+
+	@Resource(name = "dataSource")
+	private DataSource dataSource;
+
+	private File file;
+	private String catalog;
+
+	@Before
+	public void before() throws IOException, SQLException {
+		file = File.createTempFile("schema", ".properties");
+		Files.delete(file.toPath());
+		try (Connection connection = dataSource.getConnection()) {
+			catalog = connection.getCatalog();
+		}
+	}
+
+	@After
+	public void after() throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+
+	@Test
+	public void testFileRoundTrip() throws IOException {
+		Assert.assertEquals(USERS_COLUMNS, new SchemaSnapshot(file).columns(dataSource, "users"));
+		Assert.assertTrue(file.isFile());
+		String hash = load().getProperty(catalog + ".hash");
+		Assert.assertNotNull(hash);
+
+		//hash一致时直接用文件里面的字段，不会改写文件
+		Properties properties = load();
+		properties.setProperty(catalog + ".users", "id,name");
+		store(properties);
+		SchemaSnapshot snapshot = new SchemaSnapshot(file);
+		Assert.assertEquals(Arrays.asList("id", "name"), snapshot.columns(dataSource, "users"));
+		Assert.assertEquals(hash, load().getProperty(catalog + ".hash"));
+	}
+
+	@Test
+	public void testHashMismatch() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(catalog + ".hash", "0:0");
+		properties.setProperty(catalog + ".users", "id,removed");
+		store(properties);
+
+		//hash不一致的文件在使用之前就被发现，不会用到过期的字段
+		SchemaSnapshot snapshot = new SchemaSnapshot(file);
+		Assert.assertEquals(USERS_COLUMNS, snapshot.columns(dataSource, "users"));
+		Assert.assertNotEquals("0:0", load().getProperty(catalog + ".hash"));
+		Assert.assertEquals(String.join(",", USERS_COLUMNS), load().getProperty(catalog + ".users"));
+	}
+
+	@Test
+	public void testReloadWhenTableMissing() {
+		SchemaSnapshot snapshot = new SchemaSnapshot();
+		Assert.assertEquals(USERS_COLUMNS, snapshot.columns(dataSource, "users"));
+
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("create table schema_snapshot_test (id int not null, title varchar(45))");
+		try {
+			Assert.assertEquals(Arrays.asList("id", "title"), snapshot.columns(dataSource, "schema_snapshot_test"));
+			Assert.assertNull(snapshot.columns(dataSource, "notExist"));
+		} finally {
+			jdbcTemplate.execute("drop table schema_snapshot_test");
+		}
+	}
+
+	private Properties load() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+	private void store(Properties properties) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			properties.store(out, null);
+		}
+	}
+}
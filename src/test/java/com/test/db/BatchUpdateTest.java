@@ -1,13 +1,18 @@
 package com.test.db;
 
+import com.jtool.db.mysql.dao.ChunkResult;
 import org.junit.Assert;
 import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @ContextConfiguration(locations = "/testDB-config.xml")
 public class BatchUpdateTest extends AbstractTransactionalJUnit4SpringContextTests {
@@ -26,6 +31,84 @@ public class BatchUpdateTest extends AbstractTransactionalJUnit4SpringContextTes
 		Assert.assertEquals(10000, userDAO.select().count());
 	}
 
+	@Test
+	public void testAddAll() {
+		List<Users> users = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			users.add(genUserPojo(null, i + "", i));
+		}
+
+		Assert.assertEquals(10000, userDAO.addAll(users));
+		Assert.assertEquals(10000, userDAO.select().count());
+		Assert.assertEquals(1, userDAO.select().where("name = ? and age = ?", "9999", 9999).count());
+	}
+
+	@Test
+	public void testUpsertAll() {
+		List<Users> users = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			users.add(genUserPojo(null, i + "", i));
+		}
+		userDAO.addAll(users);
+
+		List<Users> changed = new ArrayList<>();
+		for (Users user : userDAO.select().orderByAsc("id").execAsList()) {
+			changed.add(genUserPojo(user.getId(), user.getName(), user.getAge() + 1000));
+		}
+		changed.add(genUserPojo(null, "new", 1));
+
+		List<ChunkResult> result = userDAO.upsertAll(changed, "age");
+		Assert.assertEquals(101, result.stream().mapToInt(ChunkResult::getRows).sum());
+		Assert.assertEquals(201, result.stream().mapToInt(ChunkResult::getAffectedRows).sum());
+		Assert.assertEquals(101, userDAO.select().count());
+		Assert.assertEquals(1, userDAO.select().where("name = ? and age = ?", "99", 1099).count());
+	}
+
+	@Test
+	public void testUpsertAllColumnNamesIgnoreCase() {
+		userDAO.addAll(Collections.singletonList(genUserPojo(null, "a", 1)));
+		Users user = userDAO.select().where("name = ?", "a").execAsPojoOpt().get();
+
+		userDAO.upsertAll(Collections.singletonList(genUserPojo(user.getId(), "a", 2)), "AGE");
+		Assert.assertEquals(1, userDAO.select().where("name = ? and age = ?", "a", 2).count());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpsertAllRejectsPrimaryKeyInAnyCase() {
+		userDAO.upsertAll(Collections.singletonList(genUserPojo(null, "a", 1)), "ID");
+	}
+
+	@Test
+	public void testLoadAll() {
+		long rows = userDAO.loadAll(IntStream.range(0, 10000).mapToObj(i -> genUserPojo(null, i + "", i)));
+		Assert.assertEquals(10000, rows);
+		Assert.assertEquals(10000, userDAO.select().count());
+
+		userDAO.loadAll(Stream.of(genUserPojo(null, "a\tb\\c\nd", 1)));
+		Assert.assertEquals(1, userDAO.select().where("name = ?", "a\tb\\c\nd").count());
+	}
+
+	//LOAD DATA把not null字段的null换成空字符串，只产生警告，要和退回的insert一样报错
+	@Test(expected = DataIntegrityViolationException.class)
+	public void testLoadAllRejectsNullInNotNullColumn() {
+		userDAO.loadAll(Stream.of(genUserPojo(null, "a", 1), genUserPojo(null, null, 2)));
+	}
+
+	@Test
+	public void testAddAllAndReturnPrimaryKeys() {
+		List<Users> users = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			users.add(genUserPojo(null, i + "", i));
+		}
+
+		long[] ids = userDAO.addAllAndReturnPrimaryKeys(users, true);
+		Assert.assertEquals(1000, ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			Assert.assertEquals(ids[i], users.get(i).getId().longValue());
+			Assert.assertEquals(i + "", userDAO.selectByPrimaryKeyOpt(ids[i]).get().getName());
+		}
+	}
+
 	private Users genUserPojo(Long id, String name, Integer age) {
 		Users users = new Users();
 		users.setAge(age);
@@ -0,0 +1,71 @@
+package com.test.db;
+
+import com.jtool.db.mysql.dao.EntityCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class CachedUserDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
+
+	@Resource
+	private CachedUserDAO cachedUserDAO;
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testCacheHitAndInvalidate() {
+		EntityCache<Users> cache = cachedUserDAO.getEntityCache();
+		long id = cachedUserDAO.addAndReturnPrimaryKey(new Users().setName("cache").setAge(1));
+		try {
+			long hitCount = cache.getHitCount();
+			Assert.assertTrue(cachedUserDAO.selectByPrimaryKeyOpt(id).isPresent());
+			Assert.assertTrue(cachedUserDAO.selectByPrimaryKeyOpt(id).isPresent());
+			Assert.assertEquals(hitCount + 1, cache.getHitCount());
+
+			cachedUserDAO.execUpdate("update " + cachedUserDAO.getTableName() + " set name = ? where id = ?", "cache2", id);
+			Assert.assertEquals("cache2", cachedUserDAO.selectByPrimaryKeyOpt(id).get().getName());
+		} finally {
+			cachedUserDAO.deleteByPrimaryKey(id);
+		}
+
+		Assert.assertFalse(cachedUserDAO.selectByPrimaryKeyOpt(id).isPresent());
+		long hitCount = cache.getHitCount();
+		Assert.assertFalse(cachedUserDAO.selectByPrimaryKeyOpt(id).isPresent());
+		Assert.assertEquals(hitCount + 1, cache.getHitCount());
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testCachedEntityIsCopied() {
+		long id = cachedUserDAO.addAndReturnPrimaryKey(new Users().setName("cache").setAge(1));
+		try {
+			Users first = cachedUserDAO.selectByPrimaryKeyOpt(id).get();
+			first.setName("changed");
+			Users second = cachedUserDAO.selectByPrimaryKeyOpt(id).get();
+			Assert.assertNotSame(first, second);
+			Assert.assertEquals("cache", second.getName());
+
+			second.setName("changed");
+			Assert.assertEquals("cache", cachedUserDAO.selectByPrimaryKeyOpt(id).get().getName());
+		} finally {
+			cachedUserDAO.deleteByPrimaryKey(id);
+		}
+	}
+
+	@Test
+	public void testCacheNotUsedInTransaction() {
+		EntityCache<Users> cache = cachedUserDAO.getEntityCache();
+		long id = cachedUserDAO.addAndReturnPrimaryKey(new Users().setName("cache").setAge(1));
+		long lookupCount = cache.getHitCount() + cache.getMissCount();
+
+		Assert.assertTrue(cachedUserDAO.selectByPrimaryKeyOpt(id).isPresent());
+		Assert.assertTrue(cachedUserDAO.selectByPrimaryKeyOpt(id).isPresent());
+		Assert.assertEquals(lookupCount, cache.getHitCount() + cache.getMissCount());
+	}
+
+}
@@ -6,6 +6,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 
 import javax.annotation.Resource;
+import java.util.Arrays;
 
 @ContextConfiguration(locations = "/testDB-config.xml")
 public class PeopleDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
@@ -30,6 +31,16 @@ public class PeopleDAOTest extends AbstractTransactionalJUnit4SpringContextTests
 		peopleDAO.deleteByPrimaryKey("1");
 	}
 
+	@Test(expected= IllegalStateException.class)
+	public void testSelectByPrimaryKeys() {
+		peopleDAO.selectByPrimaryKeys(Arrays.asList(1L, 2L));
+	}
+
+	@Test(expected= IllegalStateException.class)
+	public void testAfter() {
+		peopleDAO.select().after(1L);
+	}
+
 	@Test(expected= IllegalStateException.class)
 	public void testAddAndReturnPrimaryKey() {
 		peopleDAO.addAndReturnPrimaryKey(null);
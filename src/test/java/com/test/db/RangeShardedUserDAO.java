@@ -0,0 +1,14 @@
+package com.test.db;
+
+import com.jtool.db.mysql.annotation.DataSource;
+import com.jtool.db.mysql.annotation.ShardStrategy;
+import com.jtool.db.mysql.annotation.Table;
+import com.jtool.db.mysql.dao.AbstractDAO;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@Table(tableName = "users", primaryKeyName = "id", shardKey = "age", shardStrategy = ShardStrategy.RANGE, shardRanges = {20})
+@DataSource(shards = {"shard0", "shard1"})
+public class RangeShardedUserDAO extends AbstractDAO<Users> {
+
+}
@@ -0,0 +1,13 @@
+package com.test.db;
+
+import com.jtool.db.mysql.annotation.DataSource;
+import com.jtool.db.mysql.annotation.Table;
+import com.jtool.db.mysql.dao.AbstractDAO;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@Table(tableName = "users", primaryKeyName = "id")
+@DataSource(value = "dataSource", replicas = {"replica"}, readYourWritesMillis = 1000)
+public class ReplicaUserDAO extends AbstractDAO<Users> {
+
+}
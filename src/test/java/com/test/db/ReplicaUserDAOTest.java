@@ -0,0 +1,77 @@
+package com.test.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+//测试环境里主库和从库是两个独立的库，没有复制，根据读到的数据判断读操作走了哪个库
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class ReplicaUserDAOTest extends AbstractJUnit4SpringContextTests {
+
+	@Resource
+	private ReplicaUserDAO replicaUserDAO;
+
+	@Resource(name = "dataSource")
+	private DataSource primary;
+
+	@Resource(name = "replica")
+	private DataSource replica;
+
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	@Before
+	public void before() {
+		clean();
+		new JdbcTemplate(primary).update("insert into users (name, age) values (?, ?)", "onPrimary", 1);
+		new JdbcTemplate(replica).update("insert into users (name, age) values (?, ?)", "onReplica", 1);
+	}
+
+	@After
+	public void clean() {
+		new JdbcTemplate(primary).update("delete from users");
+		new JdbcTemplate(replica).update("delete from users");
+	}
+
+	@Test
+	public void testReadGoesToReplica() {
+		Assert.assertEquals(Collections.singletonList("onReplica"), names(replicaUserDAO.select().execAsList()));
+		Assert.assertEquals(1, replicaUserDAO.select().where("name = ?", "onReplica").count());
+	}
+
+	@Test
+	public void testReadAfterWriteGoesToPrimary() throws InterruptedException {
+		replicaUserDAO.add(new Users().setName("written").setAge(2));
+
+		Assert.assertEquals(2, replicaUserDAO.select().count());
+		Assert.assertTrue(replicaUserDAO.select().where("name = ?", "written").hasRecord());
+
+		//过了readYourWritesMillis以后回到从库
+		Thread.sleep(1100);
+		Assert.assertEquals(Collections.singletonList("onReplica"), names(replicaUserDAO.select().execAsList()));
+	}
+
+	@Test
+	public void testReadInTransactionStaysOnPrimary() {
+		List<String> names = new TransactionTemplate(transactionManager).execute(status -> names(replicaUserDAO.select().execAsList()));
+		Assert.assertEquals(Collections.singletonList("onPrimary"), names);
+
+		Assert.assertEquals(Collections.singletonList("onReplica"), names(replicaUserDAO.select().execAsList()));
+	}
+
+	private static List<String> names(List<Users> users) {
+		return users.stream().map(Users::getName).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,168 @@
+package com.test.db;
+
+import com.jtool.db.mysql.dao.RowSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+//分片的数据源不在事务管理器里面，测试不使用事务，前后清空两个分片
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class ShardedUserDAOTest extends AbstractJUnit4SpringContextTests {
+
+	@Resource
+	private ShardedUserDAO shardedUserDAO;
+
+	@Resource
+	private RangeShardedUserDAO rangeShardedUserDAO;
+
+	@Resource(name = "shard0")
+	private DataSource shard0;
+
+	@Resource(name = "shard1")
+	private DataSource shard1;
+
+	@Before
+	@After
+	public void clean() {
+		new JdbcTemplate(shard0).update("delete from users");
+		new JdbcTemplate(shard1).update("delete from users");
+	}
+
+	@Test
+	public void testHashRouting() {
+		List<Users> users = new ArrayList<>();
+		for (long id = 1; id <= 6; id++) {
+			users.add(new Users().setId(id).setName("u" + id).setAge((int) id));
+		}
+		shardedUserDAO.addAll(users);
+
+		Assert.assertEquals(Arrays.asList(2L, 4L, 6L), idsOn(shard0));
+		Assert.assertEquals(Arrays.asList(1L, 3L, 5L), idsOn(shard1));
+		Assert.assertEquals("u5", shardedUserDAO.selectByPrimaryKeyOpt(5L).get().getName());
+		Assert.assertEquals(1, shardedUserDAO.select().where("id = ?", 4L).execAsList().size());
+		Assert.assertEquals(6, shardedUserDAO.select().execAsList().size());
+	}
+
+	@Test
+	public void testRangeRouting() {
+		for (int age : new int[]{10, 19, 20, 35}) {
+			rangeShardedUserDAO.add(new Users().setName("age" + age).setAge(age));
+		}
+
+		Assert.assertEquals(Arrays.asList(10L, 19L), agesOn(shard0));
+		Assert.assertEquals(Arrays.asList(20L, 35L), agesOn(shard1));
+		Assert.assertEquals("age35", rangeShardedUserDAO.select().where("age = ?", 35).execAsPojoOpt().get().getName());
+		Assert.assertEquals(2, rangeShardedUserDAO.select().onShard(19).count());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpsertAllRejectsShardKey() {
+		rangeShardedUserDAO.upsertAll(Collections.singletonList(new Users().setName("u").setAge(10)), "name", "Age");
+	}
+
+	@Test
+	public void testFanOutOrderByWithOffsetAndLimit() {
+		addTenUsers();
+
+		Assert.assertEquals(Arrays.asList(3, 4, 5), ages(shardedUserDAO.select().orderByAsc("age").limit(2, 3).execAsList()));
+		Assert.assertEquals(Arrays.asList(10, 9, 8, 7), ages(shardedUserDAO.select().orderByDesc("age").limit(4).execAsList()));
+		Assert.assertTrue(shardedUserDAO.select().orderByAsc("age").limit(10, 5).execAsList().isEmpty());
+		Assert.assertEquals(Arrays.asList(3L, 10L), toList(shardedUserDAO.select("id").where("age > ?", 6).orderByDesc("age").limit(1, 2).execAsLongs()));
+		Assert.assertEquals("u4", shardedUserDAO.select().orderByAsc("age").limit(0, 1).execAsPojoOpt().get().getName());
+	}
+
+	//只有setter，分片合并排序不能靠DTO的getter取排序字段
+	public static class NameOnly {
+		private String name;
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void testFanOutExecAsDtoOrderedByOtherColumn() {
+		addTenUsers();
+
+		List<NameOnly> list = shardedUserDAO.select("name").orderByDesc("age").limit(1, 3).execAs(NameOnly.class);
+		Assert.assertEquals(Arrays.asList("u3", "u10", "u6"), list.stream().map(nameOnly -> nameOnly.name).collect(Collectors.toList()));
+		Assert.assertEquals(10, shardedUserDAO.select("name").execAs(NameOnly.class).size());
+	}
+
+	@Test
+	public void testFanOutFieldsOrderedByOtherColumn() {
+		addTenUsers();
+
+		List<Users> list = shardedUserDAO.select("name").orderByDesc("age").limit(1, 3).execAsList();
+		Assert.assertEquals(Arrays.asList("u3", "u10", "u6"), list.stream().map(Users::getName).collect(Collectors.toList()));
+		Assert.assertNull(list.get(0).getAge());
+
+		List<Map<String, Object>> rows = shardedUserDAO.select("name").orderByDesc("age").limit(1, 3).execAsRows();
+		Assert.assertEquals(Arrays.asList("u3", "u10", "u6"), rows.stream().map(row -> row.get("name")).collect(Collectors.toList()));
+		Assert.assertEquals(1, rows.get(0).size());
+
+		RowSet rowSet = shardedUserDAO.select("name").orderByDesc("age").limit(1, 3).execAsRowSet();
+		Assert.assertEquals(1, rowSet.getColumnCount());
+		Assert.assertEquals(Arrays.asList("u3", "u10", "u6"), Arrays.asList(rowSet.getStrings("name")));
+	}
+
+	@Test
+	public void testFanOutOrderByStringIgnoresCase() {
+		shardedUserDAO.addAll(Arrays.asList(new Users().setId(1L).setName("abe").setAge(1),
+				new Users().setId(2L).setName("ABD").setAge(2), new Users().setId(3L).setName("abc").setAge(3)));
+
+		List<Users> list = shardedUserDAO.select().orderByAsc("name").execAsList();
+		Assert.assertEquals(Arrays.asList("abc", "ABD", "abe"), list.stream().map(Users::getName).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testCountAndSumMerging() {
+		addTenUsers();
+
+		Assert.assertEquals(10, shardedUserDAO.select().count());
+		Assert.assertEquals(5, shardedUserDAO.select().where("age > ?", 5).count());
+		Assert.assertTrue(shardedUserDAO.select().where("age > ?", 9).hasOnlyOneRecord());
+		Assert.assertEquals(4, shardedUserDAO.execUpdate("update users set name = ? where age < ?", "young", 5));
+		Assert.assertEquals(4, shardedUserDAO.select().where("name = ?", "young").count());
+		Assert.assertEquals(2, shardedUserDAO.select().where("age < ?", 3).delete());
+		Assert.assertEquals(8, shardedUserDAO.select().count());
+	}
+
+	//id 1到10，age分别是3, 6, 9, 1, 4, 7, 10, 2, 5, 8
+	private void addTenUsers() {
+		List<Users> users = new ArrayList<>();
+		for (long id = 1; id <= 10; id++) {
+			users.add(new Users().setId(id).setName("u" + id).setAge((int) (id * 3 % 11)));
+		}
+		shardedUserDAO.addAll(users);
+	}
+
+	private static List<Long> idsOn(DataSource shard) {
+		return new JdbcTemplate(shard).queryForList("select id from users order by id", Long.class);
+	}
+
+	private static List<Long> agesOn(DataSource shard) {
+		return new JdbcTemplate(shard).queryForList("select age from users order by age", Long.class);
+	}
+
+	private static List<Integer> ages(List<Users> users) {
+		return users.stream().map(Users::getAge).collect(Collectors.toList());
+	}
+
+	private static List<Long> toList(long[] values) {
+		return Arrays.stream(values).boxed().collect(Collectors.toList());
+	}
+}
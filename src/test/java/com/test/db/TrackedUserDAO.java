@@ -0,0 +1,13 @@
+package com.test.db;
+
+import com.jtool.db.mysql.annotation.DataSource;
+import com.jtool.db.mysql.annotation.Table;
+import com.jtool.db.mysql.dao.AbstractDAO;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@Table(tableName = "users", primaryKeyName = "id", trackChanges = true)
+@DataSource("dataSource")
+public class TrackedUserDAO extends AbstractDAO<Users> {
+
+}
@@ -0,0 +1,108 @@
+package com.test.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class TrackedUserDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
+
+	@Resource
+	private TrackedUserDAO trackedUserDAO;
+
+	private final List<String> updates = new ArrayList<>();
+
+	@Before
+	public void before() {
+		trackedUserDAO.add(new Users().setName("jialechan").setAge(8).setHeight(1.73));
+		trackedUserDAO.add(new Users().setName("KKL").setAge(18));
+		trackedUserDAO.add(new Users().setName("Ken").setAge(28));
+		trackedUserDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> {
+			if (sqlShape.startsWith("update")) {
+				updates.add(sqlShape);
+			}
+		});
+	}
+
+	@After
+	public void after() {
+		trackedUserDAO.setQueryListener(null);
+	}
+
+	@Test
+	public void testUpdateOnlyChangedFields() {
+		Users users = trackedUserDAO.select().where("name = ?", "KKL").execAsPojoOpt().get();
+		Assert.assertEquals(0, trackedUserDAO.updateByPrimaryKey(users));
+
+		users.setAge(19);
+		Assert.assertEquals(1, trackedUserDAO.updateByPrimaryKey(users));
+		Assert.assertEquals(0, trackedUserDAO.updateByPrimaryKey(users));
+		Assert.assertEquals(Arrays.asList("update users set age = ? where id = ?"), updates);
+		Assert.assertEquals(19, trackedUserDAO.selectByPrimaryKeyOpt(users.getId()).get().getAge().intValue());
+	}
+
+	@Test
+	public void testChangeBackInSameTransaction() {
+		Users users = trackedUserDAO.select().where("name = ?", "KKL").execAsPojoOpt().get();
+		users.setAge(19);
+		Assert.assertEquals(1, trackedUserDAO.updateByPrimaryKey(users));
+		users.setAge(18);
+		Assert.assertEquals(1, trackedUserDAO.updateByPrimaryKey(users));
+		Assert.assertEquals(18, trackedUserDAO.selectByPrimaryKeyOpt(users.getId()).get().getAge().intValue());
+	}
+
+	@Test
+	public void testDateChangedInPlace() {
+		Users users = trackedUserDAO.select().where("name = ?", "KKL").execAsPojoOpt().get();
+		users.setBirthday(new Date(1000000000000L));
+		Assert.assertEquals(1, trackedUserDAO.updateByPrimaryKey(users));
+
+		users.getBirthday().setTime(1500000000000L);
+		Assert.assertEquals(1, trackedUserDAO.updateByPrimaryKey(users));
+		Assert.assertEquals(Arrays.asList("update users set birthday = ? where id = ?", "update users set birthday = ? where id = ?"), updates);
+		Assert.assertEquals(1500000000000L, trackedUserDAO.selectByPrimaryKeyOpt(users.getId()).get().getBirthday().getTime());
+
+		users.getBirthday().setTime(1500000000000L);
+		Assert.assertEquals(0, trackedUserDAO.updateByPrimaryKey(users));
+	}
+
+	@Test
+	public void testUpdateAll() {
+		List<Users> usersList = trackedUserDAO.select().orderByAsc("id").execAsList();
+		usersList.get(0).setAge(9);
+		usersList.get(1).setAge(19);
+		usersList.get(2).setName("Ken2");
+
+		Assert.assertEquals(3, trackedUserDAO.updateAll(usersList));
+		Assert.assertEquals(0, trackedUserDAO.updateAll(usersList));
+		Assert.assertEquals("Ken2", trackedUserDAO.selectByPrimaryKeyOpt(usersList.get(2).getId()).get().getName());
+		Assert.assertEquals(19, trackedUserDAO.selectByPrimaryKeyOpt(usersList.get(1).getId()).get().getAge().intValue());
+	}
+
+	@Test
+	public void testUpdateNotLoadedObjectWritesAllFields() {
+		Users users = trackedUserDAO.select().where("name = ?", "Ken").execAsPojoOpt().get();
+		Users copy = new Users().setId(users.getId()).setName("Ken").setAge(30);
+
+		Assert.assertEquals(1, trackedUserDAO.updateByPrimaryKey(copy));
+		Assert.assertEquals(1, updates.size());
+		for (String column : Arrays.asList("name", "age", "birthday", "height")) {
+			Assert.assertTrue(updates.get(0).contains(column + " = ?"));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testEntityCacheNotAllowedWithTrackChanges() {
+		trackedUserDAO.enableEntityCache(100, 60, TimeUnit.SECONDS, false);
+	}
+}
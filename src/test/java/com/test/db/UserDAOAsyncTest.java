@@ -0,0 +1,63 @@
+package com.test.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+//事务里面的异步查询直接在当前线程执行，这里不使用事务，才会走到dao的线程池
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class UserDAOAsyncTest extends AbstractJUnit4SpringContextTests {
+
+	@Resource
+	private UserDAO userDAO;
+
+	private final List<String> threads = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void before() {
+		userDAO.execUpdate("delete from users");
+		userDAO.add(new Users().setName("jialechan").setAge(8));
+		userDAO.add(new Users().setName("KKL").setAge(18));
+		userDAO.add(new Users().setName("Ken").setAge(28));
+		userDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> threads.add(Thread.currentThread().getName()));
+	}
+
+	@After
+	public void after() {
+		userDAO.setQueryListener(null);
+		userDAO.execUpdate("delete from users");
+	}
+
+	@Test
+	public void testAsyncRunsOnPool() throws Exception {
+		CompletableFuture<List<Users>> list = userDAO.select().where("age > ?", 10).execAsListAsync();
+		CompletableFuture<Integer> count = userDAO.select().countAsync();
+		CompletableFuture<Boolean> hasRecord = userDAO.select().where("name = ?", "Ken").hasRecordAsync();
+
+		Assert.assertEquals(2, list.get().size());
+		Assert.assertEquals(3, count.get().intValue());
+		Assert.assertTrue(hasRecord.get());
+
+		Long id = list.get().get(0).getId();
+		Optional<Users> users = userDAO.selectByPrimaryKeyAsync(id).get();
+		Map<Long, Users> map = userDAO.selectByPrimaryKeysAsync(Collections.singletonList(id)).get();
+		Assert.assertTrue(users.isPresent());
+		Assert.assertEquals(users.get(), map.get(id));
+
+		Assert.assertEquals(5, threads.size());
+		for (String thread : threads) {
+			Assert.assertTrue(thread, thread.startsWith("jtool-mysql-async-"));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.test.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+//countCached和countApproximate在事务里面都不使用缓存和统计信息，这里不使用事务
+@ContextConfiguration(locations = "/testDB-config.xml")
+public class UserDAOCountTest extends AbstractJUnit4SpringContextTests {
+
+	@Resource
+	private UserDAO userDAO;
+
+	private final List<String> shapes = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void before() {
+		userDAO.execUpdate("delete from users");
+		userDAO.add(new Users().setName("jialechan").setAge(8));
+		userDAO.add(new Users().setName("KKL").setAge(18));
+		userDAO.add(new Users().setName("Ken").setAge(28));
+		userDAO.invalidateCountCache();
+		userDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> shapes.add(sqlShape));
+	}
+
+	@After
+	public void after() {
+		userDAO.setQueryListener(null);
+		userDAO.invalidateCountCache();
+		userDAO.execUpdate("delete from users");
+	}
+
+	@Test
+	public void testCountCached() {
+		Assert.assertEquals(2, userDAO.select().where("age > ?", 10).countCached(1, TimeUnit.MINUTES));
+		userDAO.add(new Users().setName("Tim").setAge(38));
+		Assert.assertEquals(2, userDAO.select().where("age > ?", 10).countCached(1, TimeUnit.MINUTES));
+		Assert.assertEquals(3, userDAO.select().where("age > ?", 10).count());
+
+		userDAO.invalidateCountCache();
+		Assert.assertEquals(3, userDAO.select().where("age > ?", 10).countCached(1, TimeUnit.MINUTES));
+	}
+
+	@Test
+	public void testCountApproximateFromTableStatistics() {
+		shapes.clear();
+		Assert.assertTrue(userDAO.select().countApproximate() >= 0);
+		Assert.assertEquals(1, shapes.size());
+		Assert.assertTrue(shapes.get(0), shapes.get(0).contains("information_schema.tables"));
+	}
+
+	@Test
+	public void testCountApproximateFromExplain() {
+		shapes.clear();
+		Assert.assertTrue(userDAO.select().where("age > ?", 10).countApproximate() >= 0);
+		Assert.assertEquals(1, shapes.size());
+		Assert.assertTrue(shapes.get(0), shapes.get(0).startsWith("explain select"));
+	}
+}
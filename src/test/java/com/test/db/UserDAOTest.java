@@ -1,14 +1,23 @@
 package com.test.db;
 
+import com.jtool.db.mysql.dao.QueryBatch;
+import com.jtool.db.mysql.dao.RowSet;
+import com.jtool.db.mysql.dao.SelectTemplate;
+import com.jtool.db.mysql.dao.SlowQueryLog;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @ContextConfiguration(locations = "/testDB-config.xml")
 public class UserDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
@@ -240,6 +249,25 @@ public class UserDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
 		Assert.assertEquals(0, userFromDB.size());
 	}
 	
+	@Test
+	public void testSelectByPrimaryKeys() {
+		List<Users> usersFromDB = userDAO.select().orderByAsc("id").execAsList();
+		Long firstId = usersFromDB.get(0).getId();
+		Long lastId = usersFromDB.get(2).getId();
+
+		Map<Long, Users> result = userDAO.selectByPrimaryKeys(Arrays.asList(lastId, -1L, firstId));
+
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals(Arrays.asList(lastId, firstId), new ArrayList<>(result.keySet()));
+		Assert.assertEquals("Ken", result.get(lastId).getName());
+		Assert.assertEquals("jialechan", result.get(firstId).getName());
+	}
+
+	@Test
+	public void testSelectByPrimaryKeysWithEmptyIds() {
+		Assert.assertTrue(userDAO.selectByPrimaryKeys(new ArrayList<Long>()).isEmpty());
+	}
+
 	@Test
 	public void testExecUpdate() {
 		Users user = new Users();
@@ -317,6 +345,261 @@ public class UserDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
 		Assert.assertEquals(0, userses.size());
 	}
 	
+	@Test
+	public void testForEach() {
+		List<Users> usersFromDB = new ArrayList<>();
+		userDAO.select().where("age < ?", 20).forEach(usersFromDB::add);
+
+		Assert.assertEquals(2, usersFromDB.size());
+		Assert.assertEquals("jialechan", usersFromDB.get(0).getName());
+	}
+
+	@Test
+	public void testExecAsStream() {
+		try (Stream<Users> stream = userDAO.select().orderByDesc("id").execAsStream()) {
+			Assert.assertEquals(Arrays.asList("Ken", "KKL", "jialechan"), stream.map(Users::getName).collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testAfterAndBefore() {
+		List<Users> firstPage = userDAO.select().after(null).limit(2).execAsList();
+		Assert.assertEquals(2, firstPage.size());
+		Assert.assertEquals("jialechan", firstPage.get(0).getName());
+		Assert.assertEquals("KKL", firstPage.get(1).getName());
+
+		List<Users> secondPage = userDAO.select().after(firstPage.get(1).getId()).limit(2).execAsList();
+		Assert.assertEquals(1, secondPage.size());
+		Assert.assertEquals("Ken", secondPage.get(0).getName());
+
+		List<Users> previousPage = userDAO.select().before(secondPage.get(0).getId()).limit(2).execAsList();
+		Assert.assertEquals(2, previousPage.size());
+		Assert.assertEquals("KKL", previousPage.get(0).getName());
+		Assert.assertEquals("jialechan", previousPage.get(1).getName());
+	}
+
+	@Test
+	public void testForEachChunk() {
+		List<Integer> chunkSizes = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		userDAO.select().where("age > ?", 1).forEachChunk(2, chunk -> {
+			chunkSizes.add(chunk.size());
+			chunk.forEach(users -> names.add(users.getName()));
+		});
+
+		Assert.assertEquals(Arrays.asList(2, 1), chunkSizes);
+		Assert.assertEquals(Arrays.asList("jialechan", "KKL", "Ken"), names);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAfterWithOrderBy() {
+		userDAO.select().orderByDesc("age").after(1L).execAsList();
+	}
+
+	@Test
+	public void testCompile() {
+		SelectTemplate<Users> template = userDAO.select().where("age > ?").orderByDesc("id").compile();
+
+		List<Users> usersFromDB = template.execAsList(16);
+		Assert.assertEquals(2, usersFromDB.size());
+		Assert.assertEquals("Ken", usersFromDB.get(0).getName());
+
+		Assert.assertEquals(0, template.execAsList(100).size());
+		Assert.assertEquals(3, template.count(1));
+		Assert.assertTrue(template.hasRecord(20));
+		Assert.assertFalse(template.hasRecord(28));
+	}
+
+	@Test
+	public void testCompileWithBoundArgs() {
+		SelectTemplate<Users> template = userDAO.select().where("name != ? and age > ?", "Ken").compile();
+
+		Assert.assertEquals(2, template.count(1));
+		Assert.assertEquals("KKL", template.execAsPojoOpt(10).get().getName());
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		CompletableFuture<List<Users>> list = userDAO.select().where("age > ?", 10).execAsListAsync();
+		CompletableFuture<Integer> count = userDAO.select().countAsync();
+		CompletableFuture<Boolean> hasRecord = userDAO.select().where("name = ?", "Ken").hasRecordAsync();
+
+		Assert.assertEquals(2, list.get().size());
+		Assert.assertEquals(3, count.get().intValue());
+		Assert.assertTrue(hasRecord.get());
+	}
+
+	@Test
+	public void testQueryListener() {
+		List<String> shapes = new ArrayList<>();
+		userDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> shapes.add(dao + " " + sqlShape + " " + rows));
+		try {
+			userDAO.select().where("age > ?", 10).limit(0, 10).execAsList();
+			userDAO.selectByPrimaryKeys(Arrays.asList(-1, -2, -3));
+		} finally {
+			userDAO.setQueryListener(null);
+		}
+
+		Assert.assertEquals(Arrays.asList("UserDAO select * from users where age > ? limit ? 2", "UserDAO select * from users where id in (?) 0"), shapes);
+	}
+
+	@Test
+	public void testQueryListenerCoversWritesAndLiterals() {
+		List<String> shapes = new ArrayList<>();
+		userDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> shapes.add(sqlShape + " " + rows));
+		try {
+			userDAO.add(new Users().setName("Tom").setAge(30));
+			Users ken = userDAO.execSelectSqlAsList("select * from users where name = 'Ken' and age in (28, 29)").get(0);
+			userDAO.execSelectSqlAsList("select * from users where name = 'It''s' and height > 1.5e0 limit 10");
+			userDAO.updateAll(Collections.singletonList(ken.setAge(29)));
+		} finally {
+			userDAO.setQueryListener(null);
+		}
+
+		Assert.assertEquals(4, shapes.size());
+		Assert.assertTrue(shapes.get(0), shapes.get(0).startsWith("insert into users (") && shapes.get(0).endsWith(" 1"));
+		Assert.assertEquals("select * from users where name = ? and age in (?) 1", shapes.get(1));
+		Assert.assertEquals("select * from users where name = ? and height > ? limit ? 0", shapes.get(2));
+		Assert.assertTrue(shapes.get(3), shapes.get(3).startsWith("update users set ") && shapes.get(3).endsWith(" 1"));
+	}
+
+	@Test
+	public void testQueryListenerErrorDoesNotHideSqlError() {
+		userDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> {
+			throw new IllegalStateException("listener");
+		});
+		try {
+			Assert.assertEquals(3, userDAO.select().count());
+			userDAO.execSelectSqlAsList("select * from notExist");
+			Assert.fail();
+		} catch (DataAccessException e) {
+			//应该是语句本身的异常，不是监听器的
+		} finally {
+			userDAO.setQueryListener(null);
+		}
+	}
+
+	@Test
+	public void testSlowQueryLog() {
+		userDAO.enableSlowQueryLog(0, TimeUnit.MILLISECONDS, 0, true, 2);
+		try {
+			userDAO.select().where("age > ?", 10).execAsList();
+			userDAO.select().where("name = ?", "Ken").execAsList();
+			userDAO.select().count();
+			List<SlowQueryLog.SlowQuery> slowQueries = userDAO.getSlowQueryLog().dump();
+
+			Assert.assertEquals(2, slowQueries.size());
+			Assert.assertEquals("select * from users where name = ?", slowQueries.get(0).getSql());
+			Assert.assertEquals(Collections.singletonList("***"), slowQueries.get(0).getArgs());
+			Assert.assertEquals(1, slowQueries.get(0).getRows());
+			Assert.assertEquals("select count(1) from users", slowQueries.get(1).getSql());
+		} finally {
+			userDAO.disableSlowQueryLog();
+		}
+	}
+
+	@Test
+	public void testSlowQueryLogExplain() throws InterruptedException {
+		userDAO.enableSlowQueryLog(0, TimeUnit.MILLISECONDS, 1, false, 10);
+		try {
+			userDAO.select().where("age > ?", 10).execAsList();
+			SlowQueryLog.SlowQuery slowQuery = userDAO.getSlowQueryLog().dump().get(0);
+			Assert.assertEquals(Collections.singletonList(10), slowQuery.getArgs());
+
+			//EXPLAIN在后台执行
+			for (int i = 0; i < 100 && slowQuery.getExplain() == null; i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertNotNull(slowQuery.getExplain());
+			Assert.assertFalse(slowQuery.getExplain().isEmpty());
+		} finally {
+			userDAO.disableSlowQueryLog();
+		}
+	}
+
+	@Test
+	public void testExecAsRowSet() {
+		RowSet rowSet = userDAO.select().where("age > ?", 10).execAsRowSet();
+		List<Map<String, Object>> rows = userDAO.select().where("age > ?", 10).execAsRows();
+
+		Assert.assertEquals(rows.size(), rowSet.size());
+		Assert.assertEquals(rows, rowSet.toRows());
+		for (int i = 0; i < rowSet.size(); i++) {
+			Assert.assertEquals(((Number) rows.get(i).get("age")).intValue(), rowSet.getInt(i, "age"));
+			Assert.assertEquals(rows.get(i).get("name"), rowSet.getString(i, "NAME"));
+		}
+		Assert.assertEquals(rowSet.size(), rowSet.getLongs("id").length);
+
+		Assert.assertTrue(userDAO.select().where("age > ?", 1000).execAsRowSet().isEmpty());
+	}
+
+	@Test
+	public void testExecAsRowSetWithNulls() {
+		//表里面name和age不能为null，用nullif把KKL那一行变成null
+		String sql = "select id, nullif(age, 18) as age, nullif(name, 'KKL') as name, height from users order by id";
+		RowSet rowSet = userDAO.execSelectSqlAsRowSet(sql);
+		List<Map<String, Object>> rows = userDAO.execSelectSqlAsRows(sql);
+
+		Assert.assertEquals(3, rowSet.size());
+		Assert.assertEquals(rows, rowSet.toRows());
+		Assert.assertFalse(rowSet.isNull(0, "age"));
+		Assert.assertTrue(rowSet.isNull(1, "age"));
+		Assert.assertTrue(rowSet.isNull(1, "name"));
+		Assert.assertFalse(rowSet.isNull(2, "name"));
+		Assert.assertNull(rowSet.getObject(1, "age"));
+		Assert.assertNull(rowSet.getString(1, "name"));
+		Assert.assertEquals(0, rowSet.getInt(1, "age"));
+		Assert.assertEquals(28, rowSet.getInt(2, "age"));
+		Assert.assertEquals("Ken", rowSet.getString(2, "name"));
+		Assert.assertArrayEquals(new int[]{8, 0, 28}, rowSet.getInts("age"));
+		Assert.assertTrue(rowSet.isNull(1, "height"));
+		Assert.assertEquals(1.73, rowSet.getDouble(0, "height"), 0.0001);
+	}
+
+	public static class NameAndAge {
+		private String name;
+		private Integer age;
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public void setAge(Integer age) {
+			this.age = age;
+		}
+	}
+
+	@Test
+	public void testExecAsProjection() {
+		Assert.assertArrayEquals(new long[]{8, 18, 28}, userDAO.select("age").orderByAsc("age").execAsLongs());
+		Assert.assertEquals(Arrays.asList("KKL", "Ken"), userDAO.select("name").where("age > ?", 10).orderByAsc("age").execAsStrings());
+		Assert.assertEquals(Arrays.asList(8, 18, 28), userDAO.select("age").orderByAsc("age").execAs(Integer.class));
+
+		List<NameAndAge> list = userDAO.select("name, age").where("age > ?", 10).orderByAsc("age").execAs(NameAndAge.class);
+		Assert.assertEquals(2, list.size());
+		Assert.assertEquals("KKL", list.get(0).name);
+		Assert.assertEquals(28, list.get(1).age.intValue());
+	}
+
+	@Test
+	public void testGeneratedMapping() {
+		UserDAO_JtoolMapping mapping = new UserDAO_JtoolMapping();
+		Assert.assertEquals("select * from users where id = ?", UserDAO_JtoolMapping.SELECT_BY_PRIMARY_KEY_SQL);
+		Assert.assertEquals(Users.class, mapping.pojoClass());
+		Assert.assertEquals(Long.class, mapping.propertyType("id"));
+		Assert.assertNull(mapping.propertyType("notExist"));
+
+		Users users = mapping.newInstance();
+		mapping.setter("name").accept(users, "Ken");
+		Assert.assertEquals("Ken", mapping.getter("name").apply(users));
+
+		Assert.assertTrue(userDAO.getGeneratedMapping() instanceof UserDAO_JtoolMapping);
+		Long id = userDAO.select().where("name = ?", "Ken").execAsPojoOpt().get().getId();
+		Optional<Users> usersOptional = userDAO.selectByPrimaryKeyOpt(id);
+		Assert.assertTrue(usersOptional.isPresent());
+		Assert.assertEquals("Ken", usersOptional.get().getName());
+	}
+
 	@Test
 	public void testHasOnlyOneRecord() {
 		Assert.assertTrue(userDAO.select().where("name = ?", "Ken").hasOnlyOneRecord());
@@ -329,6 +612,61 @@ public class UserDAOTest extends AbstractTransactionalJUnit4SpringContextTests {
 		Assert.assertFalse(userDAO.select().where("name = ?", "nobody").hasRecord());
 	}
 
+	@Test
+	public void testCountCachedNotUsedInTransaction() {
+		//事务里面数到的是还没提交的数据，不能放进缓存给别的会话用
+		userDAO.invalidateCountCache();
+		Assert.assertEquals(2, userDAO.select().where("age > ?", 10).countCached(1, TimeUnit.MINUTES));
+		userDAO.add(new Users().setName("Tim").setAge(38));
+		Assert.assertEquals(3, userDAO.select().where("age > ?", 10).countCached(1, TimeUnit.MINUTES));
+	}
+
+	@Test
+	public void testCountApproximateInTransaction() {
+		//统计信息看不到还没提交的数据，事务里面退回精确的count
+		Assert.assertEquals(userDAO.select().count(), userDAO.select().countApproximate());
+		Assert.assertEquals(userDAO.select().where("age > ?", 10).count(), userDAO.select().where("age > ?", 10).countApproximate());
+	}
+
+	@Test
+	public void testQueryBatch() {
+		QueryBatch batch = new QueryBatch();
+		QueryBatch.Result<List<Users>> users = batch.list(userDAO.select().where("age > ?", 10).orderByDesc("age"));
+		QueryBatch.Result<Integer> count = batch.count(userDAO.select().where("age > ?", 10));
+		QueryBatch.Result<List<Map<String, Object>>> rows = batch.rows(userDAO.select("name").where("age < ?", 10));
+		batch.execute();
+
+		Assert.assertEquals(Arrays.asList("Ken", "KKL"), users.get().stream().map(Users::getName).collect(Collectors.toList()));
+		Assert.assertEquals(2, count.get().intValue());
+		Assert.assertEquals("jialechan", rows.get().get(0).get("name"));
+	}
+
+	@Test
+	public void testQueryBatchReportsEachQuery() {
+		List<String> shapes = new ArrayList<>();
+		userDAO.setQueryListener((dao, sqlShape, connectNanos, executeNanos, fetchNanos, mapNanos, rows, error) -> shapes.add(sqlShape + " " + rows));
+		userDAO.enableSlowQueryLog(0, TimeUnit.MILLISECONDS, 0, false, 10);
+		try {
+			QueryBatch batch = new QueryBatch();
+			batch.list(userDAO.select().where("age > ?", 10));
+			batch.count(userDAO.select().where("age < ?", 10));
+			batch.execute();
+
+			Assert.assertEquals(Arrays.asList("select * from users where age > ? 2", "select count(?) from users where age < ? 1"), shapes);
+			Assert.assertEquals(2, userDAO.getSlowQueryLog().dump().size());
+		} finally {
+			userDAO.setQueryListener(null);
+			userDAO.disableSlowQueryLog();
+		}
+	}
+
+	@Test
+	public void testHasRecordWithLimit() {
+		Assert.assertTrue(userDAO.select().where("age > ?", 1).limit(2, 10).hasRecord());
+		Assert.assertFalse(userDAO.select().where("age > ?", 1).limit(3, 10).hasRecord());
+		Assert.assertFalse(userDAO.select().where("age > ?", 100).hasOnlyOneRecord());
+	}
+
 	@Test
 	public void testSelectByStartAndLimitOrderByOrderBy() {
 		List<Map<String, Object>> userFromDB = userDAO.select().limit(0, 1).orderByDesc("id").orderByDesc("age").execAsRows();